@@ -223,6 +223,7 @@ public class QueryMain{
         long endtime = System.currentTimeMillis();
         double executiontime = (endtime - starttime)/1000.0;
         System.out.println("Execution time = "+ executiontime);
+        System.out.println("Buffer pool hits = " + BufferPool.getHits() + ", misses = " + BufferPool.getMisses());
     }
     
     
@@ -7,6 +7,8 @@ package qp.operators;
 import qp.utils.*;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Vector;
 
 
@@ -14,35 +16,51 @@ public class BlockNestedJoin extends Join {
     int batchsize;  //Number of tuples per out batch
     int blocksize;  // number of batches per block
 
-    int leftindex;     // Index of the join attribute in left table
-    int rightindex;    // Index of the join attribute in right table
+    int[] leftindexes;   // Indexes of the join attributes in left table
+    int[] rightindexes;  // Indexes of the join attributes in right table
     
     String rfname;    // The file name where the right table is materialize
+    boolean rescan;   // Whether the right base table is scanned again instead
     
     static int filenum = 0;   // To get unique filenum for this operation
     
+    TupleLayout outlayout;  // Layout of the joined tuples
+    
     Batch outbatch;   // Output buffer
     Batch leftbatch;  // Buffer for left input stream
     Block leftblock;
+    HashMap<Object, ArrayList<Tuple>> blocktable;  // Tuples of the left block by join key
     
     Batch rightbatch;  // Buffer for right input stream
-    ObjectInputStream in; // File pointer to the right hand materialized file
+    Prefetcher rightpages; // Reader of the right hand materialized file
+    int prefetch;      // Number of pages of the right file read ahead
     
-    int lcurs;    // Cursor for left side buffer
     int rcurs;    // Cursor for right side buffer
+    Tuple righttuple;  // Right tuple whose matches are being joined
+    ArrayList<Tuple> matches;  // Tuples of the left block matching righttuple
+    int mcurs;    // Cursor in matches
     boolean eosl;  // Whether end of stream (left table) is reached
     boolean eosr;  // End of stream (right table)
     
     public BlockNestedJoin(Join jn) {
         super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        setConditions(jn.getConditions());
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = jn.getNumBuff();
     }
     
     
+    /** number of pages of the right table read ahead during each pass **/
+    
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+    
+    
     /** During open finds the index of the join attributes
-     **  Materializes the right hand side into a file
+     **  Materializes the right hand side into a file unless
+     **  it is a base table
      **  Opens the connections
      **/
     
@@ -52,17 +70,17 @@ public class BlockNestedJoin extends Join {
         /** select number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
+        outlayout = schema.getTupleLayout();
         blocksize = numBuff - 2;
         
-        Attribute leftattr = con.getLhs();
-        Attribute rightattr = (Attribute) con.getRhs();
-        leftindex = left.getSchema().indexOf(leftattr);
-        rightindex = right.getSchema().indexOf(rightattr);
+        leftindexes = leftIndexes();
+        rightindexes = rightIndexes();
+        bindResidual();
         Batch rightpage;
         /** initialize the cursors of input buffers **/
         
-        lcurs = 0;
         rcurs = 0;
+        matches = null;
         eosl = false;
         /** because right stream is to be repetitively scanned
          ** if it reached end, we have to start new scan
@@ -73,7 +91,13 @@ public class BlockNestedJoin extends Join {
          ** for the Nested join to perform
          **/
         
-        if (!right.open()) {
+        rescan = right.getOpType() == OpType.SCAN;
+        if (rescan) {
+            /** A base table is already on disk, every block scans
+             ** it again instead of a copy of it
+             **/
+            rfname = null;
+        } else if (!right.open()) {
             return false;
         } else {
             /** If the right operator is not a base table then
@@ -81,7 +105,6 @@ public class BlockNestedJoin extends Join {
              ** into a file
              **/
             
-            //if(right.getOpType() != OpType.SCAN){
             filenum++;
             rfname = "SNJtemp-" + String.valueOf(filenum);
             try {
@@ -94,7 +117,6 @@ public class BlockNestedJoin extends Join {
                 System.out.println("BlockNestedJoin:writing the temporary file error");
                 return false;
             }
-            //}
             if (!right.close())
                 return false;
         }
@@ -106,15 +128,13 @@ public class BlockNestedJoin extends Join {
     
     
     /** from input buffers selects the tuples satisfying join condition
-     ** And returns a page of output tuples
+     ** And returns a page of output tuples. The tuples of each left block
+     ** are put in a hash table on the join attribute, so every right
+     ** tuple finds its matches with one lookup
      **/
     
     
     public Batch next() {
-        //System.out.print("NestedJoin:--------------------------in next----------------");
-        //Debug.PPrint(con);
-        //System.out.println();
-        int i, j;
         if (eosl) {
             close();
             return null;
@@ -122,7 +142,7 @@ public class BlockNestedJoin extends Join {
         outbatch = new Batch(batchsize);
         
         while (!outbatch.isFull()) {
-            if (lcurs == 0 && eosr == true) {
+            if (eosr == true) {
                 /** new left block is to be fetched**/
                 leftblock = new Block(blocksize, batchsize);
                 
@@ -139,71 +159,52 @@ public class BlockNestedJoin extends Join {
                     eosl = true;
                     return outbatch;
                 }
+                buildBlockTable();
                 /** Whenever a new left block came, we have to start the
                  ** scanning of right table
                  **/
-                try {
-                    
-                    in = new ObjectInputStream(new FileInputStream(rfname));
-                    eosr = false;
-                } catch (IOException io) {
-                    System.err.println("NestedJoin:error in reading the file");
-                    System.exit(1);
-                }
-                
+                openRight();
+                eosr = false;
+                rightbatch = null;
+                rcurs = 0;
+                matches = null;
+
             }
             
             while (eosr == false) {
                 
-                try {
-                    if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                if (rightbatch == null || rcurs == rightbatch.size()) {
+                    rightbatch = nextRight();
+                    rcurs = 0;
+                    if (rightbatch == null) {
+                        eosr = true;
+                        break;
                     }
-                    
-                    for (i = lcurs; i < leftblock.getTupleSize(); i++) {
-                        for (j = rcurs; j < rightbatch.size(); j++) {
-                            Tuple lefttuple = leftblock.getTuple(i);
-                            Tuple righttuple = rightbatch.elementAt(j);
-                            if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
-                                Tuple outtuple = lefttuple.joinWith(righttuple);
-                                
-                                //Debug.PPrint(outtuple);
-                                //System.out.println();
-                                outbatch.add(outtuple);
-                                if (outbatch.isFull()) {
-                                    if (i == leftblock.getTupleSize() - 1 && j == rightbatch.size() - 1) {//case 1
-                                        lcurs = 0;
-                                        rcurs = 0;
-                                    } else if (i != leftblock.getTupleSize() - 1 && j == rightbatch.size() - 1) {//case 2
-                                        lcurs = i + 1;
-                                        rcurs = 0;
-                                    } else if (i == leftblock.getTupleSize() - 1 && j != rightbatch.size() - 1) {//case 3
-                                        lcurs = i;
-                                        rcurs = j + 1;
-                                    } else {
-                                        lcurs = i;
-                                        rcurs = j + 1;
-                                    }
-                                    return outbatch;
-                                }
-                            }
+                }
+                
+                while (rcurs < rightbatch.size()) {
+                    if (matches == null) {
+                        righttuple = rightbatch.elementAt(rcurs);
+                        matches = blocktable.get(righttuple.keyAt(rightindexes));
+                        mcurs = 0;
+                        if (matches == null) {
+                            rcurs++;
+                            continue;
                         }
-                        rcurs = 0;
                     }
-                    lcurs = 0;
-                } catch (EOFException e) {
-                    try {
-                        in.close();
-                    } catch (IOException io) {
-                        System.out.println("NestedJoin:Error in temporary file reading");
+                    while (mcurs < matches.size()) {
+                        Tuple lefttuple = matches.get(mcurs++);
+                        if (!checkResidual(lefttuple, righttuple)) {
+                            continue;
+                        }
+                        outbatch.add(lefttuple.joinWith(righttuple, outlayout));
+                        if (outbatch.isFull()) {
+                            /** the cursors keep the position for the next call **/
+                            return outbatch;
+                        }
                     }
-                    eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin:Some error in deserialization ");
-                    System.exit(1);
-                } catch (IOException io) {
-                    System.out.println("NestedJoin:temporary file reading error");
-                    System.exit(1);
+                    matches = null;
+                    rcurs++;
                 }
             }
         }
@@ -211,11 +212,62 @@ public class BlockNestedJoin extends Join {
     }
     
     
+    /** Hash table of the tuples of the left block on the join key **/
+    
+    protected void buildBlockTable() {
+        blocktable = new HashMap<>();
+        for (int i = 0; i < leftblock.getTupleSize(); i++) {
+            Tuple lefttuple = leftblock.getTuple(i);
+            Object key = lefttuple.keyAt(leftindexes);
+            ArrayList<Tuple> bucket = blocktable.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                blocktable.put(key, bucket);
+            }
+            bucket.add(lefttuple);
+        }
+    }
+    
+    
+    /** Start a new pass over the right table **/
+    
+    protected void openRight() {
+        if (rescan) {
+            if (!right.open()) {
+                System.err.println("BlockNestedJoin:error in opening the right table");
+                System.exit(1);
+            }
+            return;
+        }
+        try {
+            rightpages = Prefetcher.ofFile(rfname, prefetch);
+        } catch (IOException io) {
+            System.err.println("BlockNestedJoin:error in reading the file");
+            System.exit(1);
+        }
+    }
+    
+    /** Next page of the right table, null at the end of the pass **/
+    
+    protected Batch nextRight() {
+        if (rescan) {
+            return right.next();
+        }
+        return rightpages.next();
+    }
+    
+    
     /** Close the operator */
     public boolean close() {
         
-        File f = new File(rfname);
-        f.delete();
+        if (rightpages != null) {
+            rightpages.close();
+            rightpages = null;
+        }
+        if (rfname != null) {
+            File f = new File(rfname);
+            f.delete();
+        }
         return true;
         
     }
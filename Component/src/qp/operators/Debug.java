@@ -6,6 +6,8 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.Vector;
+
 public class Debug {
     
     
@@ -88,11 +90,25 @@ public class Debug {
                 case JoinType.HASHJOIN:
                     System.out.print("HashJoin(");
                     break;
+                case JoinType.HYBRIDHASH:
+                    System.out.print("HybridHash(");
+                    break;
+                case JoinType.INDEXNESTED:
+                    System.out.print("IndexNested(");
+                    break;
+                case JoinType.RANGEJOIN:
+                    System.out.print("RangeJoin(");
+                    break;
             }
             //System.out.print("Join(");
             PPrint(((Join) node).getLeft());
             System.out.print("  [");
-            PPrint(((Join) node).getCondition());
+            Vector<Condition> conditions = ((Join) node).getConditions();
+            for (int i = 0; i < conditions.size(); i++) {
+                if (i > 0)
+                    System.out.print(",");
+                PPrint(conditions.elementAt(i));
+            }
             System.out.print("]  ");
             PPrint(((Join) node).getRight());
             System.out.print(")");
@@ -101,7 +117,12 @@ public class Debug {
             System.out.print("Select(");
             PPrint(((Select) node).getBase());
             System.out.print("  '");
-            PPrint(((Select) node).getCondition());
+            Vector<Condition> conditions = ((Select) node).getConditions();
+            for (int i = 0; i < conditions.size(); i++) {
+                if (i > 0)
+                    System.out.print(",");
+                PPrint(conditions.elementAt(i));
+            }
             System.out.print("')");
 
         } else if (optype == OpType.PROJECT) {
@@ -118,6 +139,14 @@ public class Debug {
             System.out.print(")");
         } else if (optype == OpType.SCAN) {
             System.out.print(((Scan) node).getTabName());
+        } else if (optype == OpType.INDEXSCAN) {
+            System.out.print("IndexScan(" + ((IndexScan) node).getTabName() + "  '");
+            PPrint(((IndexScan) node).getCondition());
+            System.out.print("')");
+        } else if (optype == OpType.GATHER) {
+            System.out.print("Gather[" + ((Gather) node).getNumPipelines() + "](");
+            PPrint(((Gather) node).getPipeline(0));
+            System.out.print(")");
         }
     }
     
@@ -125,7 +154,7 @@ public class Debug {
     /** print a tuple **/
     
     public static void PPrint(Tuple t) {
-        for (int i = 0; i < t.data().size(); i++) {
+        for (int i = 0; i < t.size(); i++) {
             Object data = t.dataAt(i);
             if (data instanceof Integer) {
                 System.out.print(((Integer) data).intValue() + "\t");
@@ -0,0 +1,59 @@
+/**
+ * Project over Selects over a Scan executed as one compiled loop
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+/**
+ * The selections and the projection are done by a PageProcessor
+ * generated for this pipeline (see PipelineCompiler) directly on the
+ * records of the file pages of the scanned table. The original operators
+ * stay below as the base and are used when the table cannot be
+ * read from its binary file
+ **/
+
+public class FusedProject extends Project {
+
+    Scan scan;                  // The scan at the bottom of the pipeline
+    PageProcessor processor;    // Generated code of the pipeline
+    boolean fused;              // Whether the processor is used in this run
+
+
+    public FusedProject(Project proj, Scan scan, PageProcessor processor) {
+        super(proj.getBase(), proj.getProjAttr(), proj.getOpType());
+        setSchema(proj.getSchema());
+        this.scan = scan;
+        this.processor = processor;
+    }
+
+
+    public boolean open() {
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+
+        if (scan.open()) {
+            if (scan.isColumnar()) {
+                fused = true;
+                columnar = false;
+                return true;
+            }
+            scan.close();
+        }
+        fused = false;
+        return super.open();
+    }
+
+
+    public Batch next() {
+        if (!fused) {
+            return super.next();
+        }
+        return scan.nextProcessed(processor, batchsize);
+    }
+
+    public boolean isColumnar() {
+        return !fused && super.isColumnar();
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Runs copies of a pipeline in parallel and merges their output
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Each pipeline is a Project over Selects over a Scan of its own range
+ * of pages of a binary table. Every pipeline is run by a worker thread
+ * which puts the pages it produces into a bounded queue; next() returns
+ * the pages in the order they arrive. The pages of the pipelines are
+ * not kept in order
+ **/
+
+public class Gather extends Operator {
+
+    static final Batch END = new Batch(0);  // A worker has no more pages
+
+    Operator[] pipelines;
+    Thread[] workers;
+    ArrayBlockingQueue<Batch> queue;
+    int running;              // Number of workers still producing pages
+    volatile boolean stopped;
+    volatile Throwable failure;  // First exception thrown by a pipeline
+
+
+    public Gather(Operator[] pipelines) {
+        super(OpType.GATHER);
+        this.pipelines = pipelines;
+        setSchema(pipelines[0].getSchema());
+    }
+
+    public int getNumPipelines() {
+        return pipelines.length;
+    }
+
+    public Operator getPipeline(int i) {
+        return pipelines[i];
+    }
+
+
+    /** A Gather of numworkers copies of the Project, each scanning its share
+     ** of the pages of the table, null if the pipeline cannot be split
+     **/
+
+    public static Gather partition(Project proj, int numworkers) {
+        Operator node = proj.getBase();
+        while (node.getOpType() == OpType.SELECT) {
+            node = ((Select) node).getBase();
+        }
+        if (node.getOpType() != OpType.SCAN) {
+            return null;
+        }
+        int numpages = ((Scan) node).getNumPages();
+        numworkers = Math.min(numworkers, numpages);
+        if (numworkers < 2) {
+            return null;
+        }
+
+        Operator[] pipelines = new Operator[numworkers];
+        for (int i = 0; i < numworkers; i++) {
+            Project copy = (Project) proj.clone();
+            Operator base = copy.getBase();
+            while (base.getOpType() == OpType.SELECT) {
+                base = ((Select) base).getBase();
+            }
+            /** the workers read the shared mapping of the file **/
+            Scan scan = (Scan) base;
+            scan.setPageRange((int) ((long) numpages * i / numworkers),
+                    (int) ((long) numpages * (i + 1) / numworkers));
+            scan.setMapped(true);
+            scan.setPrefetch(0);
+            Project fused = PipelineCompiler.compile(copy);
+            pipelines[i] = fused != null ? fused : copy;
+        }
+        return new Gather(pipelines);
+    }
+
+
+    /** opens the pipelines and starts the workers **/
+
+    public boolean open() {
+        for (int i = 0; i < pipelines.length; i++) {
+            if (!pipelines[i].open())
+                return false;
+        }
+        stopped = false;
+        failure = null;
+        queue = new ArrayBlockingQueue<>(2 * pipelines.length);
+        workers = new Thread[pipelines.length];
+        running = pipelines.length;
+        for (int i = 0; i < pipelines.length; i++) {
+            workers[i] = new Thread(new Worker(pipelines[i]), "Gather-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        return true;
+    }
+
+
+    public Batch next() {
+        while (running > 0) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (failure != null) {
+                /** the pipeline failed in a worker, fail as it would have here **/
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            if (batch == END) {
+                running--;
+            } else {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+
+    /** stops the workers that are still running and closes the pipelines **/
+
+    public boolean close() {
+        stopped = true;
+        if (workers != null) {
+            for (int i = 0; i < workers.length; i++) {
+                while (workers[i].isAlive()) {
+                    queue.clear();  // unblocks a worker waiting for room
+                    try {
+                        workers[i].join(10);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            workers = null;
+        }
+        for (int i = 0; i < pipelines.length; i++) {
+            pipelines[i].close();
+        }
+        return true;
+    }
+
+
+    public Object clone() {
+        Operator[] newpipelines = new Operator[pipelines.length];
+        for (int i = 0; i < pipelines.length; i++) {
+            newpipelines[i] = (Operator) pipelines[i].clone();
+        }
+        return new Gather(newpipelines);
+    }
+
+
+    /** keeps the first failure and stops the other workers **/
+
+    synchronized void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        stopped = true;
+    }
+
+
+    class Worker implements Runnable {
+        Operator pipeline;
+
+        Worker(Operator pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        public void run() {
+            try {
+                Batch batch;
+                while (!stopped && (batch = pipeline.next()) != null) {
+                    if (!batch.isEmpty()) {
+                        queue.put(batch);
+                    }
+                }
+            } catch (InterruptedException e) {
+                /** stopped **/
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            } finally {
+                /** next() counts the workers that ended, failed or not **/
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    /** stopped **/
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,576 @@
+/**
+ * partitioned (Grace) hash join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * Both inputs are hashed on the join attribute into numBuff-1 partition
+ * files, one output buffer per partition and one input buffer. Matching
+ * tuples end up in partitions with the same number, so each pair of
+ * partitions is joined on its own: the smaller side of the pair is
+ * loaded into a hash table in numBuff-2 buffers and the other side is
+ * read a page at a time to probe it. A pair whose smaller side does not
+ * fit is partitioned again with another hash function. After MAXLEVEL
+ * levels (when many tuples share a join value) the smaller side is
+ * loaded in chunks of numBuff-2 pages and the other side is probed once
+ * per chunk. The join values of the left input are collected in a Bloom
+ * filter while it is partitioned, and the scans of the right input drop
+ * the tuples whose join value is not in it before they are written.
+ *
+ * No hash function splits the tuples of a single join value, so before
+ * partitioning the first pages of the left input are sampled for heavy
+ * hitters: values that alone take more than the share of a partition.
+ * Each of them (at most numBuff/4) gets a pair of partitions of its own,
+ * which is joined in chunks right away instead of being partitioned again.
+ * The sample holds at most numBuff-2 pages and a sampled page is released
+ * as soon as its tuples are moved to the partition buffers, so the sample
+ * and the partition buffers together never hold more than numBuff pages
+ **/
+
+public class HashJoin extends Join {
+
+    static final int MAXLEVEL = 3;  // Levels of repartitioning before joining in chunks
+    static final int SAMPLEPAGES = 8;  // Pages of the left input sampled for heavy hitters
+
+    static int filenum = 0;   // To get unique filenum for this operation
+
+    int batchsize;  //Number of tuples per out batch
+    int numpart;    // Number of partitions of each pass
+    int buildpages; // Number of pages the hash table may hold
+    int prefetch;   // Number of pages of the partition files read ahead
+
+    int[] leftindexes;   // Indexes of the join attributes in left table
+    int[] rightindexes;  // Indexes of the join attributes in right table
+
+    String prefix;     // Prefix of the names of the partition files
+    int numfiles;      // Partition files created so far
+
+    TupleLayout outlayout;  // Layout of the joined tuples
+
+    Vector<Partition> pending;  // Pairs of partitions still to be joined
+
+    /** The following fields describe the pair being joined **/
+    Partition current;
+    boolean buildleft;      // Whether the hash table holds the left tuples
+    Prefetcher buildin;     // Reader of the partition loaded into the table
+    Prefetcher probein;     // Reader of the partition probing the table
+    HashMap<Object, ArrayList<Tuple>> table;
+
+    Batch probebatch;  // Page of the probing partition
+    int pcurs;         // Cursor in probebatch
+    Tuple probetuple;  // Tuple whose matches are being joined
+    ArrayList<Tuple> matches;  // Tuples of the table matching probetuple
+    int mcurs;         // Cursor in matches
+    boolean eos;       // Whether all the pairs are joined
+
+    HashMap<Object, Integer> heavy;  // Heavy hitter values to their own partition number
+
+    BloomFilter leftfilter;  // Join values of the left input
+    boolean filterpushed;    // Whether the scans of the right input hold leftfilter
+
+    public HashJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        setConditions(jn.getConditions());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+        leftTuples = jn.getLeftTuples();
+    }
+
+
+    /** number of pages of the partition files read ahead **/
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+
+    /** During open finds the index of the join attributes
+     ** and partitions both inputs into files
+     **/
+
+    public boolean open() {
+        if (!prepare())
+            return false;
+        if (!left.open())
+            return false;
+        Vector<Batch> sample = sampleHeavyHitters();
+        PartitionWriter leftparts = partitionInput(left, leftindexes, sample, leftfilter);
+        if (leftparts == null)
+            return false;
+        publishFilter();
+        if (!right.open())
+            return false;
+        PartitionWriter rightparts = partitionInput(right, rightindexes, new Vector<Batch>(), null);
+        if (rightparts == null)
+            return false;
+        addPartitions(leftparts, rightparts, 0);
+        return true;
+    }
+
+    /** finds the index of the join attributes and resets the state **/
+
+    protected boolean prepare() {
+        if (numBuff < 3) {
+            System.out.println("HashJoin: at least 3 buffers are needed");
+            return false;
+        }
+
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+        outlayout = schema.getTupleLayout();
+        numpart = numBuff - 1;
+        buildpages = numBuff - 2;
+
+        leftindexes = leftIndexes();
+        rightindexes = rightIndexes();
+        bindResidual();
+
+        filenum++;
+        prefix = "HJtemp-" + filenum;
+        numfiles = 0;
+        pending = new Vector<>();
+        current = null;
+        probebatch = null;
+        matches = null;
+        eos = false;
+        heavy = null;
+        if (leftfilter == null) {
+            leftfilter = new BloomFilter(leftTuples);
+        } else {
+            leftfilter.reset();
+        }
+        return true;
+    }
+
+    /** hands the filter of the left join values to the right input,
+     ** once all of them are added
+     **/
+
+    protected void publishFilter() {
+        leftfilter.build();
+        if (!filterpushed) {
+            filterpushed = pushRuntimeFilter(right, (Attribute) con.getRhs(), leftfilter);
+        }
+    }
+
+
+    /** Reads the first pages of the left input, at most numBuff-2 of them,
+     ** and takes as heavy hitters the values with more tuples in them than
+     ** the share of a partition, the most frequent first. Returns the pages read
+     **/
+
+    protected Vector<Batch> sampleHeavyHitters() {
+        Vector<Batch> sample = new Vector<>();
+        HashMap<Object, Integer> counts = new HashMap<>();
+        int numtuples = 0;
+        int samplepages = Math.min(SAMPLEPAGES, numBuff - 2);
+        Batch page;
+        while (sample.size() < samplepages && (page = left.next()) != null) {
+            sample.add(page);
+            for (int i = 0; i < page.size(); i++) {
+                Object key = page.elementAt(i).keyAt(leftindexes);
+                Integer count = counts.get(key);
+                counts.put(key, count == null ? 1 : count + 1);
+            }
+            numtuples += page.size();
+        }
+
+        heavy = new HashMap<>();
+        int maxheavy = numBuff / 4;
+        while (heavy.size() < maxheavy) {
+            Object heaviest = null;
+            int max = 1;
+            for (Object key : counts.keySet()) {
+                int count = counts.get(key);
+                if (count > max && count * numpart > numtuples && !heavy.containsKey(key)) {
+                    heaviest = key;
+                    max = count;
+                }
+            }
+            if (heaviest == null)
+                break;
+            heavy.put(heaviest, heavy.size());
+        }
+        /** the heavy hitters take output buffers from the other partitions **/
+        numpart = numpart - heavy.size();
+        return sample;
+    }
+
+    /** reads the whole opened input, after the pages already read from it,
+     ** into partition files, adding the values of the first join attribute
+     ** to values if it is not null. The pages already read are dropped from
+     ** read once their tuples are in the partition buffers
+     **/
+
+    protected PartitionWriter partitionInput(Operator input, int[] indexes, Vector<Batch> read, BloomFilter values) {
+        PartitionWriter parts = new PartitionWriter(input.getSchema(), indexes, 0, numpart);
+        Batch page;
+        while ((page = (!read.isEmpty() ? read.remove(0) : input.next())) != null) {
+            for (int i = 0; i < page.size(); i++) {
+                parts.add(page.elementAt(i));
+                if (values != null)
+                    values.add(page.elementAt(i).dataAt(indexes[0]));
+            }
+        }
+        parts.close();
+        if (!input.close())
+            return null;
+        return parts;
+    }
+
+    /** the partitions with the same number are joined together **/
+
+    protected void addPartitions(PartitionWriter leftparts, PartitionWriter rightparts, int level) {
+        pending.addAll(pairPartitions(leftparts, rightparts, level));
+    }
+
+    protected Vector<Partition> pairPartitions(PartitionWriter leftparts, PartitionWriter rightparts, int level) {
+        Vector<Partition> pairs = new Vector<>();
+        for (int p = 0; p < leftparts.names.length; p++) {
+            /** the pair of a heavy hitter cannot be split, it is joined in chunks **/
+            int partlevel = p < leftparts.count ? level : MAXLEVEL;
+            pairs.add(new Partition(leftparts.names[p], leftparts.numpages[p], leftparts.numtuples[p],
+                    rightparts.names[p], rightparts.numpages[p], rightparts.numtuples[p], partlevel));
+        }
+        return pairs;
+    }
+
+    /** name of a new partition file **/
+
+    protected synchronized String nextFileName() {
+        return prefix + "-" + (numfiles++);
+    }
+
+
+    /** from the hash table and the probing partition selects the
+     ** tuples satisfying join condition and returns a page of them
+     **/
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            if (matches != null && mcurs < matches.size()) {
+                Tuple match = matches.get(mcurs++);
+                if (buildleft) {
+                    if (checkResidual(match, probetuple))
+                        outbatch.add(match.joinWith(probetuple, outlayout));
+                } else {
+                    if (checkResidual(probetuple, match))
+                        outbatch.add(probetuple.joinWith(match, outlayout));
+                }
+            } else if (probebatch != null && pcurs < probebatch.size()) {
+                probetuple = probebatch.elementAt(pcurs++);
+                matches = lookup(probetuple);
+                mcurs = 0;
+            } else if ((probebatch = nextProbePage()) != null) {
+                pcurs = 0;
+            } else if (current == null || !loadChunk()) {
+                /** the pair is joined, move to the next one **/
+                if (!nextPartition()) {
+                    eos = true;
+                    if (outbatch.isEmpty()) {
+                        close();
+                        return null;
+                    }
+                    return outbatch;
+                }
+            }
+        }
+        return outbatch;
+    }
+
+
+    /** tuples of the hash table joining with the probing tuple, null if none **/
+
+    protected ArrayList<Tuple> lookup(Tuple t) {
+        return table.get(t.keyAt(buildleft ? rightindexes : leftindexes));
+    }
+
+    /** next page probing the hash table, null at the end of the pass **/
+
+    protected Batch nextProbePage() {
+        if (current == null)
+            return null;
+        return probein.next();
+    }
+
+
+    /** Starts joining the next pair of partitions, false if there is none **/
+
+    protected boolean nextPartition() {
+        finishPartition();
+        while (!pending.isEmpty()) {
+            Partition part = pending.remove(pending.size() - 1);
+            if (part.lefttuples == 0 || part.righttuples == 0) {
+                part.delete();
+                continue;
+            }
+            buildleft = part.leftpages <= part.rightpages;
+            int pages = buildleft ? part.leftpages : part.rightpages;
+            if (pages > buildpages && part.level < MAXLEVEL) {
+                repartition(part);
+                continue;
+            }
+            current = part;
+            try {
+                buildin = Prefetcher.ofFile(buildleft ? part.leftfile : part.rightfile, prefetch);
+            } catch (IOException io) {
+                System.out.println("HashJoin:error in reading the partition file");
+                System.exit(1);
+            }
+            if (loadChunk())
+                return true;
+            finishPartition();
+        }
+        return false;
+    }
+
+    /** Loads the next chunk of the building partition into the hash table
+     ** and starts a pass over the probing partition, false when all of the
+     ** building partition has been loaded
+     **/
+
+    protected boolean loadChunk() {
+        if (probein != null) {
+            probein.close();
+            probein = null;
+        }
+        probebatch = null;
+        matches = null;
+        int[] indexes = buildleft ? leftindexes : rightindexes;
+        table = new HashMap<>();
+        int numpages = 0;
+        Batch page;
+        while (numpages < buildpages && (page = buildin.next()) != null) {
+            for (int i = 0; i < page.size(); i++) {
+                Tuple t = page.elementAt(i);
+                Object key = t.keyAt(indexes);
+                ArrayList<Tuple> bucket = table.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>();
+                    table.put(key, bucket);
+                }
+                bucket.add(t);
+            }
+            numpages++;
+        }
+        if (numpages == 0)
+            return false;
+        try {
+            probein = Prefetcher.ofFile(buildleft ? current.rightfile : current.leftfile, prefetch);
+        } catch (IOException io) {
+            System.out.println("HashJoin:error in reading the partition file");
+            System.exit(1);
+        }
+        return true;
+    }
+
+    /** Releases the pair being joined and deletes its files **/
+
+    protected void finishPartition() {
+        if (buildin != null) {
+            buildin.close();
+            buildin = null;
+        }
+        if (probein != null) {
+            probein.close();
+            probein = null;
+        }
+        table = null;
+        probebatch = null;
+        matches = null;
+        if (current != null) {
+            current.delete();
+            current = null;
+        }
+    }
+
+    /** Splits both partitions of the pair with the hash function of the next level **/
+
+    protected void repartition(Partition part) {
+        int level = part.level + 1;
+        PartitionWriter leftparts = repartitionFile(part.leftfile, left.getSchema(), leftindexes, level);
+        PartitionWriter rightparts = repartitionFile(part.rightfile, right.getSchema(), rightindexes, level);
+        part.delete();
+        addPartitions(leftparts, rightparts, level);
+    }
+
+    protected PartitionWriter repartitionFile(String filename, Schema schema, int[] indexes, int level) {
+        PartitionWriter parts = new PartitionWriter(schema, indexes, level, numpart);
+        try {
+            Prefetcher in = Prefetcher.ofFile(filename, prefetch);
+            Batch page;
+            while ((page = in.next()) != null) {
+                for (int i = 0; i < page.size(); i++) {
+                    parts.add(page.elementAt(i));
+                }
+            }
+            in.close();
+        } catch (IOException io) {
+            System.out.println("HashJoin:error in reading the partition file");
+            System.exit(1);
+        }
+        parts.close();
+        return parts;
+    }
+
+
+    /** hash of the join value, each level hashes differently **/
+
+    protected int hash(Object key, int level) {
+        int h = key.hashCode() + level * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h & 0x7fffffff;
+    }
+
+
+    /** Close the operator */
+    public boolean close() {
+        finishPartition();
+        if (pending != null) {
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).delete();
+            }
+            pending.clear();
+        }
+        return true;
+    }
+
+
+    /** A pair of partition files with the same number **/
+
+    static class Partition {
+        String leftfile, rightfile;
+        int leftpages, rightpages;
+        int lefttuples, righttuples;
+        int level;   // Number of times the tuples have been partitioned before
+
+        Partition(String leftfile, int leftpages, int lefttuples,
+                  String rightfile, int rightpages, int righttuples, int level) {
+            this.leftfile = leftfile;
+            this.leftpages = leftpages;
+            this.lefttuples = lefttuples;
+            this.rightfile = rightfile;
+            this.rightpages = rightpages;
+            this.righttuples = righttuples;
+            this.level = level;
+        }
+
+        void delete() {
+            new File(leftfile).delete();
+            new File(rightfile).delete();
+        }
+    }
+
+
+    /** Writes the tuples of one input into a number of files, with one
+     ** output buffer per file; a file is created when its first page is written
+     **/
+
+    class PartitionWriter {
+        int[] indexes;  // Indexes of the join attributes
+        int level;
+        int count;      // Number of partitions by hash, the heavy hitters come after them
+        int capacity;   // Number of tuples per page
+        String[] names;
+        ObjectOutputStream[] outs;
+        Batch[] pages;
+        int[] numpages;
+        int[] numtuples;
+
+        PartitionWriter(Schema schema, int[] indexes, int level, int count) {
+            this.indexes = indexes;
+            this.level = level;
+            this.count = count;
+            if (level == 0 && heavy != null) {
+                count = count + heavy.size();
+            }
+            capacity = Math.max(1, Batch.getPageSize() / schema.getTupleSize());
+            names = new String[count];
+            outs = new ObjectOutputStream[count];
+            pages = new Batch[count];
+            numpages = new int[count];
+            numtuples = new int[count];
+            for (int p = 0; p < count; p++) {
+                names[p] = nextFileName();
+                pages[p] = new Batch(capacity);
+            }
+        }
+
+        int partitionOf(Tuple t) {
+            Object key = t.keyAt(indexes);
+            if (level == 0 && heavy != null) {
+                Integer p = heavy.get(key);
+                if (p != null) {
+                    return count + p;
+                }
+            }
+            return hash(key, level) % count;
+        }
+
+        void add(Tuple t) {
+            int p = partitionOf(t);
+            pages[p].add(t);
+            numtuples[p]++;
+            if (pages[p].isFull()) {
+                write(p);
+            }
+        }
+
+        /** the output buffer of the partition is full **/
+
+        void write(int p) {
+            writePage(p, pages[p]);
+            numpages[p]++;
+            pages[p] = new Batch(capacity);
+        }
+
+        void writePage(int p, Batch page) {
+            try {
+                if (outs[p] == null) {
+                    outs[p] = new ObjectOutputStream(new FileOutputStream(names[p]));
+                }
+                outs[p].writeObject(page);
+                outs[p].reset();
+            } catch (IOException io) {
+                System.out.println("HashJoin:writing the temporary file error");
+                System.exit(1);
+            }
+        }
+
+        void close() {
+            for (int p = 0; p < names.length; p++) {
+                if (!pages[p].isEmpty()) {
+                    write(p);
+                }
+                if (outs[p] == null) {
+                    continue;
+                }
+                try {
+                    outs[p].close();
+                } catch (IOException io) {
+                    System.out.println("HashJoin:writing the temporary file error");
+                    System.exit(1);
+                }
+            }
+        }
+    }
+}
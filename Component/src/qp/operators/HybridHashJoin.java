@@ -0,0 +1,223 @@
+/**
+ * hybrid hash join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * The left input is hashed into numBuff/2-1 partitions that are kept in
+ * memory as long as they fit in numBuff-2 buffers. Whenever they do not,
+ * the largest partition is written to a file and only keeps one output
+ * buffer from then on. The partitions still in memory once the left input
+ * is read form the hash table; a right tuple of one of these partitions is
+ * joined as it is read and the other right tuples are written to the
+ * partition files. The pairs of partitions on disk are then joined as in
+ * HashJoin. When the left input fits in memory neither input is written to
+ * disk, and when it is a little larger only a few partitions are
+ **/
+
+public class HybridHashJoin extends HashJoin {
+
+    int numfirst;          // Number of partitions of the first pass
+    boolean probing;       // Whether the right input is probing the resident partitions
+    ResidentWriter leftparts;
+    PartitionWriter rightparts;
+
+    public HybridHashJoin(Join jn) {
+        super(jn);
+    }
+
+
+    /** During open finds the index of the join attributes and
+     ** partitions the left input, keeping what fits in memory
+     **/
+
+    public boolean open() {
+        if (numBuff < 4) {
+            /** too few buffers to keep a partition besides the output buffers **/
+            return super.open();
+        }
+        if (!prepare())
+            return false;
+        numfirst = Math.max(2, (numBuff - 2) / 2);
+
+        if (!left.open())
+            return false;
+        leftparts = new ResidentWriter(left.getSchema(), leftindexes, numfirst, numBuff - 2 - numfirst);
+        Batch page;
+        while ((page = left.next()) != null) {
+            for (int i = 0; i < page.size(); i++) {
+                leftparts.add(page.elementAt(i));
+                leftfilter.add(page.elementAt(i).dataAt(leftindexes[0]));
+            }
+        }
+        leftparts.close();
+        if (!left.close())
+            return false;
+        publishFilter();
+
+        /** the resident partitions form the hash table of the first pass **/
+        buildleft = true;
+        table = new HashMap<>();
+        for (int p = 0; p < numfirst; p++) {
+            if (leftparts.spilled[p])
+                continue;
+            Vector<Batch> pages = leftparts.kept.get(p);
+            for (int i = 0; i < pages.size(); i++) {
+                Batch kept = pages.get(i);
+                for (int j = 0; j < kept.size(); j++) {
+                    Tuple t = kept.elementAt(j);
+                    Object key = t.keyAt(leftindexes);
+                    ArrayList<Tuple> bucket = table.get(key);
+                    if (bucket == null) {
+                        bucket = new ArrayList<>();
+                        table.put(key, bucket);
+                    }
+                    bucket.add(t);
+                }
+            }
+            pages.clear();
+        }
+
+        if (!right.open())
+            return false;
+        rightparts = new PartitionWriter(right.getSchema(), rightindexes, 0, numfirst);
+        probing = true;
+        return true;
+    }
+
+
+    /** the right tuples of the resident partitions probe the hash table,
+     ** the others are written to their partition file
+     **/
+
+    protected ArrayList<Tuple> lookup(Tuple t) {
+        if (!probing) {
+            return super.lookup(t);
+        }
+        int p = rightparts.partitionOf(t);
+        if (leftparts.spilled[p]) {
+            rightparts.add(t);
+            return null;
+        }
+        return table.get(t.keyAt(rightindexes));
+    }
+
+    /** during the first pass the right input is read directly **/
+
+    protected Batch nextProbePage() {
+        if (!probing) {
+            return super.nextProbePage();
+        }
+        Batch page = right.next();
+        if (page != null) {
+            return page;
+        }
+
+        /** end of the first pass, the spilled pairs are left **/
+        probing = false;
+        table = null;
+        rightparts.close();
+        if (!right.close()) {
+            System.out.println("HybridHashJoin:error in closing the right input");
+            System.exit(1);
+        }
+        for (int p = 0; p < numfirst; p++) {
+            if (leftparts.spilled[p]) {
+                pending.add(new Partition(leftparts.names[p], leftparts.numpages[p], leftparts.numtuples[p],
+                        rightparts.names[p], rightparts.numpages[p], rightparts.numtuples[p], 0));
+            }
+        }
+        leftparts = null;
+        rightparts = null;
+        return null;
+    }
+
+
+    /** Close the operator */
+    public boolean close() {
+        if (probing) {
+            probing = false;
+            rightparts.close();
+            for (int p = 0; p < numfirst; p++) {
+                if (leftparts.spilled[p]) {
+                    pending.add(new Partition(leftparts.names[p], 0, 0, rightparts.names[p], 0, 0, 0));
+                }
+            }
+            leftparts = null;
+            rightparts = null;
+        }
+        return super.close();
+    }
+
+
+    /** Keeps the pages of the partitions in memory until more than
+     ** budget full pages are kept, then writes out the largest partition
+     **/
+
+    class ResidentWriter extends PartitionWriter {
+        int budget;
+        int numkept;         // Number of full pages kept in memory
+        boolean[] spilled;   // Whether the partition is written to its file
+        Vector<Vector<Batch>> kept;
+
+        ResidentWriter(Schema schema, int[] indexes, int count, int budget) {
+            super(schema, indexes, 0, count);
+            this.budget = budget;
+            spilled = new boolean[count];
+            kept = new Vector<>();
+            for (int p = 0; p < count; p++) {
+                kept.add(new Vector<Batch>());
+            }
+        }
+
+        void write(int p) {
+            if (spilled[p]) {
+                super.write(p);
+                return;
+            }
+            kept.get(p).add(pages[p]);
+            numpages[p]++;
+            numkept++;
+            pages[p] = new Batch(capacity);
+            while (numkept > budget) {
+                spillLargest();
+            }
+        }
+
+        void spillLargest() {
+            int largest = -1;
+            for (int p = 0; p < spilled.length; p++) {
+                if (!spilled[p] && (largest == -1 || kept.get(p).size() > kept.get(largest).size())) {
+                    largest = p;
+                }
+            }
+            Vector<Batch> pages = kept.get(largest);
+            for (int i = 0; i < pages.size(); i++) {
+                writePage(largest, pages.get(i));
+            }
+            numkept -= pages.size();
+            pages.clear();
+            spilled[largest] = true;
+        }
+
+        /** the last page of a resident partition stays in memory **/
+
+        void close() {
+            for (int p = 0; p < spilled.length; p++) {
+                if (!spilled[p] && !pages[p].isEmpty()) {
+                    kept.get(p).add(pages[p]);
+                    numpages[p]++;
+                    pages[p] = new Batch(capacity);
+                }
+            }
+            super.close();
+        }
+    }
+}
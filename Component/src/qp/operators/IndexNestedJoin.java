@@ -0,0 +1,195 @@
+/**
+ * index nested loop join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.IOException;
+
+/**
+ * The right input has to be a scan of a base table with a BTreeIndex on
+ * the join attribute. It is not scanned: for each left tuple the index is
+ * searched for the join value and the matching records are read from
+ * their pages of the table file through the BufferPool
+ **/
+
+public class IndexNestedJoin extends Join {
+
+    int batchsize;  //Number of tuples per out batch
+
+    int leftindex;     // Index of the join attribute in left table
+
+    /** indexes of all the join attributes, the records found by the
+     ** index are checked on the other conditions of a composite key
+     **/
+    int[] leftindexes;
+    int[] rightindexes;
+
+    TupleLayout outlayout;  // Layout of the joined tuples
+
+    BTreeIndex index;  // Index on the join attribute of the right table
+    TableFile table;   // Binary file of the right table
+    PageLayout layout;
+    RecordProjection projection;  // Columns of the right scan, null for all
+
+    Batch leftbatch;   // Buffer for left input stream
+    int lcurs;         // Cursor for left side buffer
+    Tuple lefttuple;   // Left tuple whose matches are being read
+    Object leftkey;    // Join value of lefttuple
+    BTreeIndex.Cursor cursor;  // Entry of the next match in the index
+    boolean eosl;      // Whether end of stream (left table) is reached
+
+    public IndexNestedJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        setConditions(jn.getConditions());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+
+    /** The index on the join attribute of the right input of the join,
+     ** null if the right input is not a scan of an indexed table
+     **/
+
+    public static BTreeIndex getIndex(Join jn) {
+        if (jn.getRight().getOpType() != OpType.SCAN) {
+            return null;
+        }
+        String tabname = ((Scan) jn.getRight()).getTabName();
+        String colname = ((Attribute) jn.getCondition().getRhs()).getColName();
+        if (!TableFile.exists(tabname) || !BTreeIndex.exists(tabname, colname)) {
+            return null;
+        }
+        try {
+            return BTreeIndex.forColumn(tabname, colname);
+        } catch (IOException io) {
+            System.out.println("IndexNestedJoin: error in reading the index " + BTreeIndex.fileName(tabname, colname));
+            return null;
+        }
+    }
+
+
+    /** During open finds the index of the join attribute
+     ** and opens the index and the right table file
+     **/
+
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+        outlayout = schema.getTupleLayout();
+
+        Attribute leftattr = con.getLhs();
+        leftindex = left.getSchema().indexOf(leftattr);
+        leftindexes = leftIndexes();
+        rightindexes = rightIndexes();
+        bindResidual();
+
+        index = getIndex(this);
+        if (index == null) {
+            System.out.println("IndexNestedJoin: the right input is not an indexed table");
+            return false;
+        }
+        String tabname = ((Scan) right).getTabName();
+        projection = ((Scan) right).getProjection();
+        try {
+            table = new TableFile(TableFile.fileName(tabname), ((Scan) right).getTableSchema());
+        } catch (IOException io) {
+            System.out.println("IndexNestedJoin: error in opening " + TableFile.fileName(tabname));
+            return false;
+        }
+        layout = table.getLayout();
+
+        leftbatch = null;
+        lcurs = 0;
+        cursor = null;
+        eosl = false;
+        return left.open();
+    }
+
+
+    /** from the left input and the index selects the tuples satisfying
+     ** join condition And returns a page of output tuples
+     **/
+
+    public Batch next() {
+        if (eosl) {
+            close();
+            return null;
+        }
+        Batch outbatch = new Batch(batchsize);
+        try {
+            while (!outbatch.isFull()) {
+                if (cursor != null && cursor.isValid() && BTreeIndex.compareKeys(cursor.getKey(), leftkey) == 0) {
+                    Tuple record = readRecord(cursor.getPageNo(), cursor.getSlot());
+                    if ((leftindexes.length == 1 || lefttuple.checkJoin(record, leftindexes, rightindexes))
+                            && checkResidual(lefttuple, record)) {
+                        outbatch.add(lefttuple.joinWith(record, outlayout));
+                    }
+                    cursor.advance();
+                    continue;
+                }
+                /** new left tuple, search the index for its matches **/
+                lefttuple = nextLeft();
+                if (lefttuple == null) {
+                    eosl = true;
+                    break;
+                }
+                leftkey = lefttuple.dataAt(leftindex);
+                cursor = index.seek(leftkey);
+            }
+        } catch (IOException io) {
+            System.out.println("IndexNestedJoin: error in reading the right table");
+            System.exit(1);
+        }
+        if (outbatch.isEmpty()) {
+            close();
+            return null;
+        }
+        return outbatch;
+    }
+
+    /** next left tuple, null at the end of the left input **/
+
+    protected Tuple nextLeft() {
+        while (leftbatch == null || lcurs == leftbatch.size()) {
+            leftbatch = left.next();
+            lcurs = 0;
+            if (leftbatch == null) {
+                return null;
+            }
+        }
+        return leftbatch.elementAt(lcurs++);
+    }
+
+    /** the record in the slot of the page of the right table **/
+
+    protected Tuple readRecord(int pageno, int slot) throws IOException {
+        BufferPool.Frame frame = BufferPool.pin(table, pageno);
+        Tuple t;
+        if (projection != null) {
+            t = projection.read(table, frame.getBuffer(), pageno, slot);
+        } else {
+            t = layout.readTuple(frame.getBuffer(), table.pageBase(pageno), slot);
+        }
+        BufferPool.unpin(frame);
+        return t;
+    }
+
+
+    /** Close the operator */
+    public boolean close() {
+        if (table != null) {
+            try {
+                table.close();
+            } catch (IOException io) {
+                System.out.println("IndexNestedJoin: error in closing the right table");
+            }
+            table = null;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Scans the records of a base table satisfying a selection condition
+ * through the index on the selected attribute
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * The condition compares the attribute with a constant (EQUAL, LESSTHAN,
+ * GREATERTHAN, LTOE or GTOE). The entries of the BTreeIndex satisfying it
+ * are a range of the leaves: for EQUAL, GREATERTHAN and GTOE the range
+ * starts where the index is searched for the constant, for LESSTHAN and
+ * LTOE it starts at the first entry; it ends at the first key past the
+ * constant. Only the records of the range are read from the table file
+ * through the BufferPool, instead of reading the whole table
+ **/
+
+public class IndexScan extends Operator {
+
+    String tabname;   // Table being scanned
+    Condition con;    // Selection condition served by the index
+
+    int batchsize;    // Number of tuples per out batch
+
+    BTreeIndex index;  // Index on the attribute of the condition
+    TableFile table;   // Binary file of the table
+    PageLayout layout;
+
+    Object value;      // Constant of the condition as a key of the index
+    BTreeIndex.Cursor cursor;  // Next entry of the range
+    boolean eos;       // Whether the end of the range is reached
+
+    BoundCondition[] filters;  // Filters handed down by the joins above, see Scan
+    RecordProjection projection;  // Columns returned in late materialization, see Scan
+
+
+    public IndexScan(String tabname, Condition con, int type) {
+        super(type);
+        this.tabname = tabname;
+        this.con = con;
+        filters = new BoundCondition[0];
+    }
+
+    public String getTabName() {
+        return tabname;
+    }
+
+    public Condition getCondition() {
+        return con;
+    }
+
+
+    /** return only the columns of attrs and the row ids, see Scan,
+     ** attrs null for all the columns
+     **/
+
+    public void setColumns(Vector<?> attrs, boolean rowids) {
+        if (attrs == null) {
+            schema = getTableSchema();
+            projection = null;
+            return;
+        }
+        projection = new RecordProjection(tabname, getTableSchema(), attrs, rowids);
+        schema = projection.getSchema();
+    }
+
+    public RecordProjection getProjection() {
+        return projection;
+    }
+
+    public Schema getTableSchema() {
+        return projection == null ? schema : projection.getTableSchema();
+    }
+
+
+    /** drop the tuples whose value of attr is not in the filter **/
+
+    public void addRuntimeFilter(Attribute attr, BloomFilter filter) {
+        BoundCondition[] grown = new BoundCondition[filters.length + 1];
+        System.arraycopy(filters, 0, grown, 0, filters.length);
+        grown[filters.length] = BoundCondition.bindFilter(attr, schema, filter);
+        filters = grown;
+    }
+
+
+    /** whether an index scan can serve the condition on the table **/
+
+    public static boolean isUsable(String tabname, Condition con) {
+        if (con.getOpType() != Condition.SELECT || con.getExprType() == Condition.NOTEQUAL) {
+            return false;
+        }
+        return TableFile.exists(tabname) && BTreeIndex.exists(tabname, con.getLhs().getColName());
+    }
+
+    /** The index on the attribute of the condition, null if there is none **/
+
+    public static BTreeIndex getIndex(String tabname, Condition con) {
+        if (!isUsable(tabname, con)) {
+            return null;
+        }
+        String colname = con.getLhs().getColName();
+        try {
+            return BTreeIndex.forColumn(tabname, colname);
+        } catch (IOException io) {
+            System.out.println("IndexScan: error in reading the index " + BTreeIndex.fileName(tabname, colname));
+            return null;
+        }
+    }
+
+
+    /** the constant of the condition as a key of the given type **/
+
+    static Object parseKey(String constant, int keytype) {
+        if (keytype == Attribute.INT) {
+            return Integer.valueOf(constant);
+        } else if (keytype == Attribute.REAL) {
+            return Float.valueOf(constant);
+        } else {
+            return constant;
+        }
+    }
+
+
+    /** Opens the index and the table file and positions
+     ** the cursor at the start of the range
+     **/
+
+    public boolean open() {
+        /** num of tuples per batch**/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+        eos = false;
+
+        index = getIndex(tabname, con);
+        if (index == null) {
+            System.out.println("IndexScan: no index for the condition on " + tabname);
+            return false;
+        }
+        try {
+            value = parseKey((String) con.getRhs(), index.getKeyType());
+        } catch (NumberFormatException nf) {
+            System.out.println("IndexScan: " + con.getRhs() + " is not a value of " + con.getLhs().getColName());
+            return false;
+        }
+        try {
+            table = new TableFile(TableFile.fileName(tabname), getTableSchema());
+            layout = table.getLayout();
+            int exprtype = con.getExprType();
+            if (exprtype == Condition.LESSTHAN || exprtype == Condition.LTOE) {
+                cursor = index.first();
+            } else {
+                cursor = index.seek(value);
+                if (exprtype == Condition.GREATERTHAN) {
+                    while (cursor.isValid() && BTreeIndex.compareKeys(cursor.getKey(), value) == 0) {
+                        cursor.advance();
+                    }
+                }
+            }
+        } catch (IOException io) {
+            System.out.println("IndexScan: error in reading " + TableFile.fileName(tabname) + ": " + io.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+
+    /** returns the next page of the records in the range **/
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch tuples = new Batch(batchsize);
+        try {
+            while (!tuples.isFull()) {
+                if (!cursor.isValid() || !inRange(cursor.getKey())) {
+                    eos = true;
+                    break;
+                }
+                BufferPool.Frame frame = BufferPool.pin(table, cursor.getPageNo());
+                Tuple data;
+                if (projection != null) {
+                    data = projection.read(table, frame.getBuffer(), cursor.getPageNo(), cursor.getSlot());
+                } else {
+                    data = layout.readTuple(frame.getBuffer(), table.pageBase(cursor.getPageNo()), cursor.getSlot());
+                }
+                BufferPool.unpin(frame);
+                if (BoundCondition.testAll(filters, data))
+                    tuples.add(data);
+                cursor.advance();
+            }
+        } catch (IOException io) {
+            System.err.println("IndexScan:Error reading " + TableFile.fileName(tabname) + ": " + io.getMessage());
+            System.exit(1);
+        }
+        if (tuples.isEmpty()) {
+            close();
+            return null;
+        }
+        return tuples;
+    }
+
+    /** whether the key is before the end of the range **/
+
+    protected boolean inRange(Object key) {
+        int cmp = BTreeIndex.compareKeys(key, value);
+        switch (con.getExprType()) {
+            case Condition.EQUAL:
+            case Condition.LTOE:
+                return cmp <= 0;
+            case Condition.LESSTHAN:
+                return cmp < 0;
+            default:
+                return true;
+        }
+    }
+
+
+    /** Close the table file **/
+
+    public boolean close() {
+        if (table != null) {
+            try {
+                table.close();
+            } catch (IOException io) {
+                System.err.println("IndexScan: Error closing " + TableFile.fileName(tabname));
+                return false;
+            }
+            table = null;
+        }
+        return true;
+    }
+
+
+    public Object clone() {
+        IndexScan newscan = new IndexScan(tabname, (Condition) con.clone(), optype);
+        newscan.setSchema((Schema) getTableSchema().clone());
+        if (projection != null) {
+            newscan.setColumns(schema.getAttList(), projection.hasRowIds());
+        }
+        return newscan;
+    }
+}
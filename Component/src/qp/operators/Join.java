@@ -13,8 +13,11 @@ public class Join extends Operator {
     
     Operator left;   // left child
     Operator right;   // right child
-    Condition con;     //join condition
+    Condition con;     //join condition, the first of conditions
+    Vector<Condition> conditions; // join conditions between the same two tables, all to be satisfied, equalities first
+    int[][] residual;  // {left index, right index, exprtype} of the other conditions, see bindResidual
     int numBuff;    // Number of buffers available
+    int leftTuples; // Estimated number of tuples of the left input, 0 if unknown
     
     int jointype;  // JoinType.NestedJoin/SortMerge/HashJoin
     int nodeIndex;   // Each join node is given a number
@@ -24,6 +27,8 @@ public class Join extends Operator {
         this.left = left;
         this.right = right;
         this.con = cn;
+        this.conditions = new Vector<>();
+        conditions.add(cn);
         
     }
     
@@ -36,6 +41,19 @@ public class Join extends Operator {
     public int getNumBuff() {
         return numBuff;
     }
+
+
+    /** estimated number of tuples of the left input, sizes the filter
+     ** of the left join values
+     **/
+
+    public void setLeftTuples(int num) {
+        this.leftTuples = num;
+    }
+
+    public int getLeftTuples() {
+        return leftTuples;
+    }
     
     
     /** index of this node in query plan tree **/
@@ -79,23 +97,147 @@ public class Join extends Operator {
     
     public void setCondition(Condition cond) {
         this.con = cond;
+        conditions = new Vector<>();
+        conditions.add(cond);
     }
     
+    /** first of the conditions **/
+    
     public Condition getCondition() {
         return con;
     }
     
+    /** one more condition between the same two tables **/
+    
+    public void addCondition(Condition cond) {
+        conditions.add(cond);
+    }
+    
+    public void setConditions(Vector<Condition> conds) {
+        con = conds.elementAt(0);
+        conditions = new Vector<>(conds);
+    }
+    
+    public Vector<Condition> getConditions() {
+        return conditions;
+    }
+    
+    /** swaps the sides of all the conditions, for the inputs swapped **/
+    
+    public void flipConditions() {
+        for (int i = 0; i < conditions.size(); i++) {
+            conditions.elementAt(i).flip();
+        }
+    }
+    
+    
+    /** whether the first condition is an equality, the joins on hash
+     ** tables, sorted keys and indexes need one
+     **/
+    
+    public boolean isEquiJoin() {
+        return con.getExprType() == Condition.EQUAL;
+    }
+    
+    /** number of equalities, at the start of the conditions **/
+    
+    protected int numEqualities() {
+        int num = 0;
+        while (num < conditions.size() && conditions.elementAt(num).getExprType() == Condition.EQUAL) {
+            num++;
+        }
+        return num;
+    }
+    
+    /** indexes of the join attributes of the equalities in the left
+     ** input, the composite join key of the left tuples
+     **/
+    
+    protected int[] leftIndexes() {
+        int[] indexes = new int[numEqualities()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = left.getSchema().indexOf(conditions.elementAt(i).getLhs());
+        }
+        return indexes;
+    }
+    
+    /** indexes of the join attributes in the right input **/
+    
+    protected int[] rightIndexes() {
+        int[] indexes = new int[numEqualities()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = right.getSchema().indexOf((Attribute) conditions.elementAt(i).getRhs());
+        }
+        return indexes;
+    }
+    
+    
+    /** The conditions that are not equalities are checked on the pairs
+     ** matched by the key
+     **/
+    
+    protected void bindResidual() {
+        int first = numEqualities();
+        residual = new int[conditions.size() - first][];
+        for (int i = 0; i < residual.length; i++) {
+            Condition cn = conditions.elementAt(first + i);
+            residual[i] = new int[]{left.getSchema().indexOf(cn.getLhs()),
+                    right.getSchema().indexOf((Attribute) cn.getRhs()), cn.getExprType()};
+        }
+    }
+    
+    /** whether the pair satisfies the conditions other than the equalities **/
+    
+    protected boolean checkResidual(Tuple lefttuple, Tuple righttuple) {
+        for (int i = 0; i < residual.length; i++) {
+            if (!lefttuple.checkJoin(righttuple, residual[i][0], residual[i][1], residual[i][2])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /** Hands the filter of the values of the join attribute on the other
+     ** side down to the scan of the table of attr inside node, returns
+     ** false if there is none. The tuples the filter rejects cannot be
+     ** part of the result, as the join is on attr
+     **/
+    
+    protected static boolean pushRuntimeFilter(Operator node, Attribute attr, BloomFilter filter) {
+        if (node.getSchema().indexOf(attr) == -1) {
+            return false;
+        }
+        if (node.getOpType() == OpType.SCAN) {
+            ((Scan) node).addRuntimeFilter(attr, filter);
+            return true;
+        } else if (node.getOpType() == OpType.INDEXSCAN) {
+            ((IndexScan) node).addRuntimeFilter(attr, filter);
+            return true;
+        } else if (node.getOpType() == OpType.SELECT) {
+            return pushRuntimeFilter(((Select) node).getBase(), attr, filter);
+        } else if (node.getOpType() == OpType.JOIN) {
+            return pushRuntimeFilter(((Join) node).getLeft(), attr, filter)
+                    || pushRuntimeFilter(((Join) node).getRight(), attr, filter);
+        }
+        return false;
+    }
+    
+    
     public Object clone() {
         Operator newleft = (Operator) left.clone();
         Operator newright = (Operator) right.clone();
         Condition newcond = (Condition) con.clone();
         
         Join jn = new Join(newleft, newright, newcond, optype);
+        for (int i = 1; i < conditions.size(); i++) {
+            jn.addCondition((Condition) conditions.elementAt(i).clone());
+        }
         Schema newsche = newleft.getSchema().joinWith(newright.getSchema());
         jn.setSchema(newsche);
         jn.setJoinType(jointype);
         jn.setNodeIndex(nodeIndex);
         jn.setNumBuff(numBuff);
+        jn.setLeftTuples(leftTuples);
         return jn;
         
     }
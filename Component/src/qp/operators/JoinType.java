@@ -16,10 +16,12 @@ public class JoinType {
     public static final int BLOCKNESTED = 1;
     public static final int SORTMERGE = 2;
     public static final int HASHJOIN = 3;
-    public static final int INDEXNESTED = 4;
+    public static final int HYBRIDHASH = 4;
+    public static final int INDEXNESTED = 5;
+    public static final int RANGEJOIN = 6;
     
     public static int numJoinTypes() {
-        return 3;  // Currently only support NJ, BNJ and SMJ
+        return 7;  // NJ, BNJ, SMJ, HJ, hybrid HJ, INLJ (only feasible with an index) and range join
         // return k for k joins
     }
     
@@ -18,13 +18,15 @@ public class NestedJoin extends Join {
     /** The following fields are useful during execution of
      ** the NestedJoin operation
      **/
-    int leftindex;     // Index of the join attribute in left table
-    int rightindex;    // Index of the join attribute in right table
+    int[] leftindexes;   // Indexes of the join attributes in left table
+    int[] rightindexes;  // Indexes of the join attributes in right table
     
     String rfname;    // The file name where the right table is materialize
     
     static int filenum = 0;   // To get unique filenum for this operation
     
+    TupleLayout outlayout;  // Layout of the joined tuples
+    
     Batch outbatch;   // Output buffer
     Batch leftbatch;  // Buffer for left input stream
     Batch rightbatch;  // Buffer for right input stream
@@ -34,9 +36,11 @@ public class NestedJoin extends Join {
     int rcurs;    // Cursor for right side buffer
     boolean eosl;  // Whether end of stream (left table) is reached
     boolean eosr;  // End of stream (right table)
+    boolean rescan;  // Whether the right table is scanned directly instead of materialized
     
     public NestedJoin(Join jn) {
         super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        setConditions(jn.getConditions());
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = jn.getNumBuff();
@@ -54,11 +58,11 @@ public class NestedJoin extends Join {
         /** select number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
+        outlayout = schema.getTupleLayout();
         
-        Attribute leftattr = con.getLhs();
-        Attribute rightattr = (Attribute) con.getRhs();
-        leftindex = left.getSchema().indexOf(leftattr);
-        rightindex = right.getSchema().indexOf(rightattr);
+        leftindexes = leftIndexes();
+        rightindexes = rightIndexes();
+        bindResidual();
         Batch rightpage;
         /** initialize the cursors of input buffers **/
         
@@ -74,7 +78,13 @@ public class NestedJoin extends Join {
          ** for the Nested join to perform
          **/
         
-        if (!right.open()) {
+        rescan = right.getOpType() == OpType.SCAN && ((Scan) right).isMapped();
+        if (rescan) {
+            /** A mapped base table is scanned again from the
+             ** mapping for every left page, no need to copy it
+             **/
+            rfname = null;
+        } else if (!right.open()) {
             return false;
         } else {
             /** If the right operator is not a base table then
@@ -135,81 +145,111 @@ public class NestedJoin extends Join {
                 /** Whenver a new left page came , we have to start the
                  ** scanning of right table
                  **/
-                try {
-                    
-                    in = new ObjectInputStream(new FileInputStream(rfname));
-                    eosr = false;
-                } catch (IOException io) {
-                    System.err.println("NestedJoin:error in reading the file");
-                    System.exit(1);
-                }
+                openRight();
+                eosr = false;
                 
             }
             
             while (eosr == false) {
                 
-                try {
-                    if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                if (rcurs == 0 && lcurs == 0) {
+                    rightbatch = nextRight();
+                    if (rightbatch == null) {
+                        eosr = true;
+                        break;
                     }
-                    
-                    for (i = lcurs; i < leftbatch.size(); i++) {
-                        for (j = rcurs; j < rightbatch.size(); j++) {
-                            Tuple lefttuple = leftbatch.elementAt(i);
-                            Tuple righttuple = rightbatch.elementAt(j);
-                            if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
-                                Tuple outtuple = lefttuple.joinWith(righttuple);
-                                
-                                //Debug.PPrint(outtuple);
-                                //System.out.println();
-                                outbatch.add(outtuple);
-                                if (outbatch.isFull()) {
-                                    if (i == leftbatch.size() - 1 && j == rightbatch.size() - 1) {//case 1
-                                        lcurs = 0;
-                                        rcurs = 0;
-                                    } else if (i != leftbatch.size() - 1 && j == rightbatch.size() - 1) {//case 2
-                                        lcurs = i + 1;
-                                        rcurs = 0;
-                                    } else if (i == leftbatch.size() - 1 && j != rightbatch.size() - 1) {//case 3
-                                        // to keep the last state, next time calling next() will go to this location directly
-                                        lcurs = i;
-                                        rcurs = j + 1;
-                                    } else {
-                                        lcurs = i;
-                                        rcurs = j + 1;
-                                    }
-                                    return outbatch;
+                }
+                
+                for (i = lcurs; i < leftbatch.size(); i++) {
+                    for (j = rcurs; j < rightbatch.size(); j++) {
+                        Tuple lefttuple = leftbatch.elementAt(i);
+                        Tuple righttuple = rightbatch.elementAt(j);
+                        if (lefttuple.checkJoin(righttuple, leftindexes, rightindexes)
+                                && checkResidual(lefttuple, righttuple)) {
+                            Tuple outtuple = lefttuple.joinWith(righttuple, outlayout);
+                            
+                            //Debug.PPrint(outtuple);
+                            //System.out.println();
+                            outbatch.add(outtuple);
+                            if (outbatch.isFull()) {
+                                if (i == leftbatch.size() - 1 && j == rightbatch.size() - 1) {//case 1
+                                    lcurs = 0;
+                                    rcurs = 0;
+                                } else if (i != leftbatch.size() - 1 && j == rightbatch.size() - 1) {//case 2
+                                    lcurs = i + 1;
+                                    rcurs = 0;
+                                } else if (i == leftbatch.size() - 1 && j != rightbatch.size() - 1) {//case 3
+                                    // to keep the last state, next time calling next() will go to this location directly
+                                    lcurs = i;
+                                    rcurs = j + 1;
+                                } else {
+                                    lcurs = i;
+                                    rcurs = j + 1;
                                 }
+                                return outbatch;
                             }
                         }
-                        rcurs = 0;
-                    }
-                    lcurs = 0;
-                } catch (EOFException e) {
-                    try {
-                        in.close();
-                    } catch (IOException io) {
-                        System.out.println("NestedJoin:Error in temporary file reading");
                     }
-                    eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin:Some error in deserialization ");
-                    System.exit(1);
-                } catch (IOException io) {
-                    System.out.println("NestedJoin:temporary file reading error");
-                    System.exit(1);
+                    rcurs = 0;
                 }
+                lcurs = 0;
             }
         }
         return outbatch;
     }
     
     
+    /** Start a new pass over the right table **/
+    
+    protected void openRight() {
+        if (rescan) {
+            if (!right.open()) {
+                System.err.println("NestedJoin:error in opening the right table");
+                System.exit(1);
+            }
+            return;
+        }
+        try {
+            in = new ObjectInputStream(new FileInputStream(rfname));
+        } catch (IOException io) {
+            System.err.println("NestedJoin:error in reading the file");
+            System.exit(1);
+        }
+    }
+    
+    
+    /** Next page of the right table, null at the end of the pass **/
+    
+    protected Batch nextRight() {
+        if (rescan) {
+            return right.next();
+        }
+        try {
+            return (Batch) in.readObject();
+        } catch (EOFException e) {
+            try {
+                in.close();
+            } catch (IOException io) {
+                System.out.println("NestedJoin:Error in temporary file reading");
+            }
+        } catch (ClassNotFoundException c) {
+            System.out.println("NestedJoin:Some error in deserialization ");
+            System.exit(1);
+        } catch (IOException io) {
+            System.out.println("NestedJoin:temporary file reading error");
+            System.exit(1);
+        }
+        return null;
+    }
+    
+    
     /** Close the operator */
     public boolean close() {
         
-        File f = new File(rfname);
-        f.delete();
+        if (rfname != null) {
+            File f = new File(rfname);
+            f.delete();
+        }
         return true;
         
     }
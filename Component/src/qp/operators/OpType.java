@@ -9,4 +9,6 @@ public class OpType{
     public static final int SORT = 4;
     public static final int GROUP_BY = 5;
     public static final int DISTINCT = 6;
+    public static final int GATHER = 7;
+    public static final int INDEXSCAN = 8;
 }
@@ -51,6 +51,25 @@ public class Operator {
     }
     
     
+    /** Next page of tuples stored column by column, operators that
+     ** cannot produce columns directly convert the page from next()
+     **/
+    
+    public ColumnBatch nextColumns() {
+        Batch batch = next();
+        if (batch == null) {
+            return null;
+        }
+        return ColumnBatch.fromBatch(batch, schema.getTupleLayout());
+    }
+    
+    /** whether nextColumns() produces the columns directly, known after open() **/
+    
+    public boolean isColumnar() {
+        return false;
+    }
+    
+    
     public Object clone() {
         return new Operator(optype);
     }
@@ -0,0 +1,24 @@
+/**
+ * Processes the records of a page of a binary table file
+ **/
+
+package qp.operators;
+
+import qp.utils.Batch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The subclasses are generated and compiled at plan time by
+ * PipelineCompiler for a Scan with its Selects and Project
+ **/
+
+public abstract class PageProcessor {
+
+    /** Processes the records from slot up to count of the page starting at
+     ** base in buf and adds the resulting tuples to out, stops when out
+     ** is full. Returns the slot of the first record not processed
+     **/
+
+    public abstract int process(ByteBuffer buf, int base, int slot, int count, Batch out);
+}
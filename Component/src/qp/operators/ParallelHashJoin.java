@@ -0,0 +1,288 @@
+/**
+ * partitioned hash join with the pairs of partitions joined in parallel
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Both inputs are partitioned into files as by HashJoin. The pairs of
+ * partitions are then joined by a ForkJoinPool of numworkers threads,
+ * one task per pair. Each worker holds a page of the probing side, an
+ * output page, the pages read ahead of both files and two pages of the
+ * queue; the buffers left of numBuff are shared out among the workers
+ * for their hash tables. A task whose smaller side does not fit in its
+ * share partitions the pair again and forks a task for each new pair.
+ * The tasks put the pages they produce into a bounded queue, and next()
+ * returns them in the order they arrive, like Gather. A task that fails
+ * stops the others and next() rethrows its failure
+ **/
+
+public class ParallelHashJoin extends HashJoin {
+
+    static final Batch END = new Batch(0);  // All the pairs are joined
+
+    int numworkers;   // Number of threads joining pairs
+    int taskpages;    // Number of pages of the hash table of a task
+
+    ForkJoinPool pool;
+    ArrayBlockingQueue<Batch> queue;
+    Vector<Partition> created;  // All the pairs, deleted on close
+    volatile boolean stopped;
+    volatile Throwable failure;  // First exception thrown by a task
+
+    public ParallelHashJoin(Join jn) {
+        super(jn);
+        numworkers = 1;
+    }
+
+
+    /** number of threads joining the pairs of partitions **/
+
+    public void setNumWorkers(int numworkers) {
+        this.numworkers = Math.max(1, numworkers);
+    }
+
+    public int getNumWorkers() {
+        return numworkers;
+    }
+
+
+    /** Partitions both inputs and starts joining the pairs **/
+
+    public boolean open() {
+        if (!super.open())
+            return false;
+        int workers = Math.max(1, Math.min(numworkers, pending.size()));
+        int workerpages = workerPages();
+        while (workers > 1 && numBuff - workers * workerpages < workers) {
+            workers--;
+        }
+        taskpages = Math.max(1, (numBuff - workers * workerpages) / workers);
+
+        stopped = false;
+        failure = null;
+        created = new Vector<>(pending);
+        queue = new ArrayBlockingQueue<>(2 * workers);
+        Vector<PairTask> tasks = new Vector<>();
+        for (int i = 0; i < pending.size(); i++) {
+            tasks.add(new PairTask(pending.get(i)));
+        }
+        pending.clear();
+        pool = new ForkJoinPool(workers);
+        pool.execute(new RecursiveAction() {
+            protected void compute() {
+                try {
+                    invokeAll(tasks);
+                } catch (RuntimeException | Error e) {
+                    fail(e);
+                } finally {
+                    /** next() ends on it, failed or not **/
+                    try {
+                        queue.put(END);
+                    } catch (InterruptedException e) {
+                        /** stopped **/
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /** pages a worker holds besides its hash table: a page of the probing
+     ** side, the output page, the pages read ahead of the building and the
+     ** probing files and its two pages of the queue
+     **/
+
+    protected int workerPages() {
+        return 2 + 2 * prefetch + 2;
+    }
+
+    /** keeps the first failure and stops the other tasks **/
+
+    synchronized void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        stopped = true;
+    }
+
+
+    /** returns the next page produced by the tasks **/
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (failure != null) {
+            /** a task failed, fail as the serial join would have here **/
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+        if (batch == END) {
+            eos = true;
+            close();
+            return null;
+        }
+        return batch;
+    }
+
+    /** hands a page to next(), waiting for room in the queue **/
+
+    void put(Batch batch) {
+        if (stopped)
+            return;
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            /** stopped **/
+        }
+    }
+
+
+    /** stops the tasks still running and deletes the partition files **/
+
+    public boolean close() {
+        stopped = true;
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                while (!pool.awaitTermination(10, TimeUnit.MILLISECONDS)) {
+                    queue.clear();  // unblocks a task waiting for room
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+        if (created != null) {
+            for (int i = 0; i < created.size(); i++) {
+                created.get(i).delete();
+            }
+            created = null;
+        }
+        return super.close();
+    }
+
+
+    /** Joins one pair of partitions **/
+
+    class PairTask extends RecursiveAction {
+        private static final long serialVersionUID = 8208670872662162338L;
+
+        Partition part;
+
+        PairTask(Partition part) {
+            this.part = part;
+        }
+
+        protected void compute() {
+            if (stopped || part.lefttuples == 0 || part.righttuples == 0) {
+                part.delete();
+                return;
+            }
+            boolean buildleft = part.leftpages <= part.rightpages;
+            int pages = buildleft ? part.leftpages : part.rightpages;
+            if (pages > taskpages && part.level < MAXLEVEL) {
+                int level = part.level + 1;
+                PartitionWriter leftparts = repartitionFile(part.leftfile, left.getSchema(), leftindexes, level);
+                PartitionWriter rightparts = repartitionFile(part.rightfile, right.getSchema(), rightindexes, level);
+                part.delete();
+                Vector<Partition> pairs = pairPartitions(leftparts, rightparts, level);
+                created.addAll(pairs);
+                Vector<PairTask> tasks = new Vector<>();
+                for (int i = 0; i < pairs.size(); i++) {
+                    tasks.add(new PairTask(pairs.get(i)));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            try {
+                join(buildleft);
+            } catch (IOException io) {
+                fail(new UncheckedIOException("ParallelHashJoin:error in reading the partition file", io));
+            }
+            part.delete();
+        }
+
+        /** loads the building side taskpages pages at a time,
+         ** the probing side is read once for each chunk
+         **/
+
+        void join(boolean buildleft) throws IOException {
+            int[] buildindexes = buildleft ? leftindexes : rightindexes;
+            int[] probeindexes = buildleft ? rightindexes : leftindexes;
+            Prefetcher buildin = Prefetcher.ofFile(buildleft ? part.leftfile : part.rightfile, prefetch);
+            Batch outbatch = new Batch(batchsize);
+            Batch page = buildin.next();
+            while (page != null && !stopped) {
+                HashMap<Object, ArrayList<Tuple>> chunk = new HashMap<>();
+                for (int numpages = 0; numpages < taskpages && page != null; numpages++) {
+                    for (int i = 0; i < page.size(); i++) {
+                        Tuple t = page.elementAt(i);
+                        Object key = t.keyAt(buildindexes);
+                        ArrayList<Tuple> bucket = chunk.get(key);
+                        if (bucket == null) {
+                            bucket = new ArrayList<>();
+                            chunk.put(key, bucket);
+                        }
+                        bucket.add(t);
+                    }
+                    page = buildin.next();
+                }
+
+                Prefetcher probein = Prefetcher.ofFile(buildleft ? part.rightfile : part.leftfile, prefetch);
+                Batch probe;
+                while ((probe = probein.next()) != null && !stopped) {
+                    for (int i = 0; i < probe.size(); i++) {
+                        Tuple probetuple = probe.elementAt(i);
+                        ArrayList<Tuple> matches = chunk.get(probetuple.keyAt(probeindexes));
+                        if (matches == null)
+                            continue;
+                        for (int j = 0; j < matches.size(); j++) {
+                            if (buildleft) {
+                                if (!checkResidual(matches.get(j), probetuple))
+                                    continue;
+                                outbatch.add(matches.get(j).joinWith(probetuple, outlayout));
+                            } else {
+                                if (!checkResidual(probetuple, matches.get(j)))
+                                    continue;
+                                outbatch.add(probetuple.joinWith(matches.get(j), outlayout));
+                            }
+                            if (outbatch.isFull()) {
+                                put(outbatch);
+                                outbatch = new Batch(batchsize);
+                            }
+                        }
+                    }
+                }
+                probein.close();
+            }
+            buildin.close();
+            if (!outbatch.isEmpty()) {
+                put(outbatch);
+            }
+        }
+    }
+}
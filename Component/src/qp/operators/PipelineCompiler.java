@@ -0,0 +1,271 @@
+/**
+ * Generates and compiles the code of Scan-Select-Project pipelines
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * For a Project whose base is a chain of Selects over a Scan of a
+ * binary table, the Java source of a PageProcessor is generated from the
+ * page layout of the table, the conditions and the projected columns. It
+ * decodes each column of a record only when it is first needed, checks
+ * the conditions in order and builds the projected tuple, all in a
+ * single loop over the records of a page. The source is compiled with
+ * the system Java compiler. The constants of the conditions are passed
+ * to the constructor, so pipelines of the same shape share the
+ * compiled class
+ **/
+
+public class PipelineCompiler {
+
+    static final String PREFIX = "QpPipeline";
+
+    static int classnum = 0;   // To get unique names for the generated classes
+
+    /** compiled classes by the source generated for their shape **/
+    static Hashtable<String, Class<?>> compiled = new Hashtable<>();
+
+    /** false once the compiler turned out not to be available **/
+    static boolean available = true;
+
+
+    /** The fused operator for the Project, null if the pipeline cannot be
+     ** compiled; the plan is then executed as it is
+     **/
+
+    public static FusedProject compile(Project proj) {
+        if (!available) {
+            return null;
+        }
+
+        /** collect the conditions down to the scan **/
+        Vector<Condition> conditions = new Vector<>();
+        Operator node = proj.getBase();
+        while (node.getOpType() == OpType.SELECT) {
+            conditions.addAll(((Select) node).getConditions());
+            node = ((Select) node).getBase();
+        }
+        if (node.getOpType() != OpType.SCAN) {
+            return null;
+        }
+        Scan scan = (Scan) node;
+        if (!TableFile.exists(scan.getTabName())) {
+            return null;
+        }
+
+        Schema baseschema = scan.getSchema();
+        Vector<?> attrset = proj.getProjAttr();
+        int[] attrindex = new int[attrset.size()];
+        for (int i = 0; i < attrindex.length; i++) {
+            attrindex[i] = baseschema.indexOf((Attribute) attrset.elementAt(i));
+        }
+        BoundCondition[] bound = BoundCondition.bindAll(conditions, baseschema);
+        PageLayout record = new PageLayout(baseschema);
+
+        /** constants of the conditions, one array per type **/
+        int numints = 0, numfloats = 0, numstrings = 0;
+        for (int i = 0; i < bound.length; i++) {
+            int type = record.getType(bound[i].getColumn());
+            if (type == Attribute.INT) numints++;
+            else if (type == Attribute.REAL) numfloats++;
+            else numstrings++;
+        }
+        int[] ints = new int[numints];
+        float[] floats = new float[numfloats];
+        String[] strings = new String[numstrings];
+        numints = numfloats = numstrings = 0;
+        for (int i = 0; i < bound.length; i++) {
+            String value = (String) conditions.elementAt(i).getRhs();
+            int type = record.getType(bound[i].getColumn());
+            if (type == Attribute.INT) ints[numints++] = Integer.parseInt(value);
+            else if (type == Attribute.REAL) floats[numfloats++] = Float.parseFloat(value);
+            else strings[numstrings++] = value;
+        }
+
+        String body = generate(record, bound, attrindex);
+        try {
+            Class<?> cls = compiled.get(body);
+            if (cls == null) {
+                cls = compileClass(body);
+                if (cls == null) {
+                    return null;
+                }
+                compiled.put(body, cls);
+            }
+            PageProcessor processor = (PageProcessor) cls
+                    .getConstructor(PageLayout.class, TupleLayout.class, int[].class, float[].class, String[].class)
+                    .newInstance(record, proj.getSchema().getTupleLayout(), ints, floats, strings);
+            return new FusedProject(proj, scan, processor);
+        } catch (Exception e) {
+            System.out.println("PipelineCompiler: " + e);
+            return null;
+        }
+    }
+
+
+    /** The body of the class, CLASSNAME stands for the name of the class **/
+
+    static String generate(PageLayout record, BoundCondition[] bound, int[] attrindex) {
+        StringBuilder src = new StringBuilder();
+        int numcols = record.getNumCols();
+        boolean[] decoded = new boolean[numcols];
+
+        src.append("import java.nio.ByteBuffer;\n");
+        src.append("import qp.utils.*;\n\n");
+        src.append("public final class CLASSNAME extends qp.operators.PageProcessor {\n");
+        src.append("    final PageLayout record;\n");
+        src.append("    final TupleLayout outlayout;\n");
+
+        /** one final field per constant **/
+        StringBuilder init = new StringBuilder();
+        String[] constname = new String[bound.length];
+        int numints = 0, numfloats = 0, numstrings = 0;
+        for (int i = 0; i < bound.length; i++) {
+            int type = record.getType(bound[i].getColumn());
+            if (type == Attribute.INT) {
+                constname[i] = "i" + numints;
+                src.append("    final int ").append(constname[i]).append(";\n");
+                init.append("        ").append(constname[i]).append(" = ints[").append(numints++).append("];\n");
+            } else if (type == Attribute.REAL) {
+                constname[i] = "f" + numfloats;
+                src.append("    final float ").append(constname[i]).append(";\n");
+                init.append("        ").append(constname[i]).append(" = floats[").append(numfloats++).append("];\n");
+            } else {
+                constname[i] = "s" + numstrings;
+                src.append("    final String ").append(constname[i]).append(";\n");
+                init.append("        ").append(constname[i]).append(" = strings[").append(numstrings++).append("];\n");
+            }
+        }
+
+        src.append("\n    public CLASSNAME(PageLayout record, TupleLayout outlayout, int[] ints, float[] floats, String[] strings) {\n");
+        src.append("        this.record = record;\n");
+        src.append("        this.outlayout = outlayout;\n");
+        src.append(init);
+        src.append("    }\n\n");
+
+        src.append("    public int process(ByteBuffer buf, int base, int slot, int count, Batch out) {\n");
+        src.append("        int start = record.recordStart(base, slot);\n");
+        src.append("        for (; slot < count && !out.isFull(); slot++, start += ")
+                .append(record.getRecordSize()).append(") {\n");
+        for (int i = 0; i < bound.length; i++) {
+            int col = bound[i].getColumn();
+            decode(src, record, col, decoded);
+            src.append("            if (!(").append(test(record.getType(col), "c" + col, bound[i].getExprType(), constname[i]))
+                    .append(")) continue;\n");
+        }
+        for (int i = 0; i < attrindex.length; i++) {
+            decode(src, record, attrindex[i], decoded);
+        }
+        src.append("            Tuple t = new Tuple(outlayout);\n");
+        for (int i = 0; i < attrindex.length; i++) {
+            int col = attrindex[i];
+            int type = record.getType(col);
+            String setter = type == Attribute.INT ? "setInt" : type == Attribute.REAL ? "setFloat" : "setString";
+            src.append("            t.").append(setter).append("(").append(i).append(", c").append(col).append(");\n");
+        }
+        src.append("            out.add(t);\n");
+        src.append("        }\n");
+        src.append("        return slot;\n");
+        src.append("    }\n");
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /** local variable cN holding column N of the record, declared once **/
+
+    static void decode(StringBuilder src, PageLayout record, int col, boolean[] decoded) {
+        if (decoded[col]) {
+            return;
+        }
+        decoded[col] = true;
+        src.append("            ");
+        switch (record.getType(col)) {
+            case Attribute.INT:
+                src.append("int c").append(col).append(" = buf.getInt(start + ").append(record.getOffset(col)).append(");\n");
+                break;
+            case Attribute.REAL:
+                src.append("float c").append(col).append(" = buf.getFloat(start + ").append(record.getOffset(col)).append(");\n");
+                break;
+            default:
+                src.append("String c").append(col).append(" = record.readString(buf, start, ").append(col).append(");\n");
+        }
+    }
+
+    /** the condition as a java expression **/
+
+    static String test(int type, String value, int exprtype, String constant) {
+        if (type == Attribute.STRING) {
+            if (exprtype == Condition.EQUAL) {
+                return value + ".equals(" + constant + ")";
+            } else if (exprtype == Condition.NOTEQUAL) {
+                return "!" + value + ".equals(" + constant + ")";
+            }
+            value = value + ".compareTo(" + constant + ")";
+            constant = "0";
+        }
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return value + " < " + constant;
+            case Condition.GREATERTHAN:
+                return value + " > " + constant;
+            case Condition.LTOE:
+                return value + " <= " + constant;
+            case Condition.GTOE:
+                return value + " >= " + constant;
+            case Condition.EQUAL:
+                return value + " == " + constant;
+            default:
+                return value + " != " + constant;
+        }
+    }
+
+
+    /** compiles the generated class into a temporary directory and loads it **/
+
+    static Class<?> compileClass(String body) throws IOException, ClassNotFoundException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            System.out.println("PipelineCompiler: no Java compiler available, pipelines are not compiled");
+            available = false;
+            return null;
+        }
+        classnum++;
+        String classname = PREFIX + classnum;
+        File dir = File.createTempFile(classname, "");
+        dir.delete();
+        dir.mkdir();
+        File source = new File(dir, classname + ".java");
+        Writer out = new FileWriter(source);
+        out.write(body.replace("CLASSNAME", classname));
+        out.close();
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int status = javac.run(null, null, errors, "-nowarn",
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", dir.getPath(), source.getPath());
+        Class<?> cls = null;
+        if (status == 0) {
+            URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+                    PipelineCompiler.class.getClassLoader());
+            cls = loader.loadClass(classname);
+        } else {
+            System.out.println("PipelineCompiler: error in compiling the pipeline");
+            System.out.println(errors.toString());
+        }
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+        return cls;
+    }
+}
@@ -6,6 +6,7 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.io.IOException;
 import java.util.Vector;
 
 public class Project extends Operator {
@@ -27,6 +28,18 @@ public class Project extends Operator {
      **/
 
     int[] attrIndex;
+    TupleLayout outlayout;  // layout of the projected tuples
+
+    /** When the base produces columns the projection just picks
+     ** the column arrays, only the output rows are built
+     **/
+    boolean columnar;
+
+    /** In late materialization the attributes not in the base are
+     ** read from the records of their tables given by the row ids
+     ** in the base tuples, one Fetch per table
+     **/
+    Vector<Fetch> fetches;
 
 
     public Project(Operator base, Vector as, int type) {
@@ -68,25 +81,40 @@ public class Project extends Operator {
         //System.out.println("Project---Schema: ----------in open-----------");
         //System.out.println("base Schema---------------");
         //Debug.PPrint(baseSchema);
+        fetches = new Vector<>();
         for (int i = 0; i < attrSet.size(); i++) {
             Attribute attr = (Attribute) attrSet.elementAt(i);
             int index = baseSchema.indexOf(attr);
             attrIndex[i] = index;
+            if (index == -1 && !addFetch(attr, i, baseSchema)) {
+                return false;
+            }
 
             //  Debug.PPrint(attr);
             //System.out.println("  "+index+"  ");
         }
 
-        if (base.open())
-            return true;
-        else
+        outlayout = schema.getTupleLayout();
+
+        if (!base.open())
             return false;
+
+        columnar = base.isColumnar();
+        return true;
     }
 
     /** Read next tuple from operator */
 
     public Batch next() {
         //System.out.println("Project:-----------------in next-----------------");
+        if (columnar) {
+            ColumnBatch cols = nextColumns();
+            if (cols == null) {
+                return null;
+            }
+            return cols.toBatch(batchsize);
+        }
+
         outbatch = new Batch(batchsize);
 
         /** all the tuples in the inbuffer goes to the output
@@ -98,6 +126,7 @@ public class Project extends Operator {
 
 
         if (inbatch == null) {
+            close();
             return null;
         }
         //System.out.println("Project:---------------base tuples---------");
@@ -105,20 +134,70 @@ public class Project extends Operator {
             Tuple basetuple = inbatch.elementAt(i);
             //Debug.PPrint(basetuple);
             //System.out.println();
-            Vector present = new Vector();
-            for (int j = 0; j < attrSet.size(); j++) {
-                Object data = basetuple.dataAt(attrIndex[j]);
-                present.add(data);
+            Tuple outtuple = basetuple.project(attrIndex, outlayout);
+            for (int j = 0; j < fetches.size(); j++) {
+                fetches.get(j).fill(basetuple, outtuple);
             }
-            Tuple outtuple = new Tuple(present);
             outbatch.add(outtuple);
         }
         return outbatch;
     }
 
 
+    /** the attribute at position pos of the output is read from its
+     ** table by the row ids of the base, false if there are none
+     **/
+
+    protected boolean addFetch(Attribute attr, int pos, Schema baseSchema) {
+        String tabname = attr.getTabName();
+        for (int i = 0; i < fetches.size(); i++) {
+            if (fetches.get(i).tabname.equals(tabname)) {
+                return fetches.get(i).add(attr, pos);
+            }
+        }
+        int rowidindex = baseSchema.indexOf(TableFile.rowIdAttribute(tabname));
+        if (rowidindex == -1) {
+            System.out.println("Project: " + tabname + "." + attr.getColName() + " is not in the input");
+            return false;
+        }
+        Fetch fetch;
+        try {
+            fetch = new Fetch(tabname, rowidindex);
+        } catch (IOException io) {
+            System.out.println("Project: error in opening " + TableFile.fileName(tabname) + ": " + io.getMessage());
+            return false;
+        }
+        fetches.add(fetch);
+        return fetch.add(attr, pos);
+    }
+
+
+    /** the projected columns share the arrays of the base columns **/
+
+    public ColumnBatch nextColumns() {
+        if (!columnar) {
+            return super.nextColumns();
+        }
+        ColumnBatch cols = base.nextColumns();
+        if (cols == null) {
+            return null;
+        }
+        return cols.project(attrIndex);
+    }
+
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+
     /** Close the operator */
     public boolean close() {
+        if (fetches != null) {
+            for (int i = 0; i < fetches.size(); i++) {
+                fetches.get(i).close();
+            }
+            fetches.clear();
+        }
         return true;
 		/*
 	if(base.close())
@@ -135,8 +214,68 @@ public class Project extends Operator {
         for (int i = 0; i < attrSet.size(); i++)
             newattr.add((Attribute) ((Attribute) attrSet.elementAt(i)).clone());
         Project newproj = new Project(newbase, newattr, optype);
-        Schema newSchema = newbase.getSchema().subSchema(newattr);
-        newproj.setSchema(newSchema);
+        /** the attributes read by row ids are not in the base schema **/
+        newproj.setSchema((Schema) schema.clone());
         return newproj;
     }
+
+
+    /** Reads the projected attributes of a table from its records **/
+
+    static class Fetch {
+        String tabname;
+        int rowidindex;      // Index of the row ids in the base tuples
+        Schema tableschema;
+        TableFile table;
+        PageLayout layout;
+        Vector<int[]> cols;  // Column of the record and position in the output
+
+        Fetch(String tabname, int rowidindex) throws IOException {
+            this.tabname = tabname;
+            this.rowidindex = rowidindex;
+            tableschema = TableFile.readSchema(tabname);
+            table = new TableFile(TableFile.fileName(tabname), tableschema);
+            layout = table.getLayout();
+            cols = new Vector<>();
+        }
+
+        boolean add(Attribute attr, int pos) {
+            int col = tableschema.indexOf(attr);
+            if (col == -1) {
+                System.out.println("Project: no column " + attr.getColName() + " in " + tabname);
+                return false;
+            }
+            cols.add(new int[]{col, pos});
+            return true;
+        }
+
+        /** sets the attributes of out from the record of the row id in base,
+         ** the page is found in the BufferPool if it was read recently
+         **/
+
+        void fill(Tuple base, Tuple out) {
+            int rowid = base.intAt(rowidindex);
+            int page = table.pageOfRowId(rowid);
+            try {
+                BufferPool.Frame frame = BufferPool.pin(table, page);
+                int start = layout.recordStart(table.pageBase(page), table.slotOfRowId(rowid));
+                for (int i = 0; i < cols.size(); i++) {
+                    int[] col = cols.get(i);
+                    layout.readValue(frame.getBuffer(), start, col[0], out, col[1]);
+                }
+                BufferPool.unpin(frame);
+            } catch (IOException io) {
+                System.err.println("Project: error in reading " + table.getFileName() + ": " + io.getMessage());
+                System.exit(1);
+            }
+        }
+
+        void close() {
+            try {
+                table.close();
+            } catch (IOException io) {
+                System.err.println("Project: error in closing " + table.getFileName());
+            }
+        }
+    }
 }
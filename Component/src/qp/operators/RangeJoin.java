@@ -0,0 +1,357 @@
+/**
+ * sort based range join algorithm
+ **/
+
+package qp.operators;
+
+import qp.utils.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+/**
+ * For joins on inequalities, e.g. L.t >= R.start, L.t <= R.end. The left
+ * input is sorted by SortMerge on the attribute a of the first range
+ * condition and written to a table file, the right input is sorted on
+ * the attribute b of a lower bound a > b (or a >= b). The right tuples
+ * then sweep the sorted left: the first left tuple above the lower
+ * bound only moves forward as b grows, and the scan from it stops at
+ * the first left tuple above an upper bound a < c (or a <= c) on the
+ * same attribute. Only the range matching each right tuple is read, the
+ * pages of the left file come from the BufferPool. The other conditions
+ * are checked on the tuples of the range. The left input is sorted and
+ * written before the right one is sorted, and the final merge of the
+ * right sort stays open during the join next to a page of the left file
+ * and the output page, so it reads at most finalRuns(numBuff) runs
+ **/
+
+public class RangeJoin extends Join {
+
+    int batchsize;  //Number of tuples per out batch
+    int prefetch;   // Number of pages of the sorted files read ahead
+
+    TupleLayout outlayout;  // Layout of the joined tuples
+
+    int[] leftindexes;   // Indexes of the attributes of the equalities in left table
+    int[] rightindexes;  // Indexes of the attributes of the equalities in right table
+
+    int leftindex;       // Index of the sweep attribute in left table
+    int[] lowerindexes;  // Right attributes of the lower bounds of the sweep attribute
+    int[] lowertypes;
+    int[] upperindexes;  // Right attributes of the upper bounds of the sweep attribute
+    int[] uppertypes;
+
+    static int filenum = 0;   // To get unique filenum for this operation
+    String filename;          // The file of the sorted left input
+
+    SortMerge sortedRight;
+    TableFile table;     // Sorted left input
+    PageLayout layout;
+    int numpages;
+
+    Batch rightbatch;    // Buffer for right input stream
+    int rcurs;           // Cursor for right side buffer
+    Tuple righttuple;    // Right tuple whose range is being read
+    int startpage;       // First left tuple above the lower bound
+    int startslot;
+    int lpage;           // Next left tuple of the range
+    int lslot;
+    int cachedno;        // Number of the decoded page of the left file
+    Batch cached;
+    boolean eos;         // Whether end of stream (right table) is reached
+
+    public RangeJoin(Join jn) {
+        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        setConditions(jn.getConditions());
+        schema = jn.getSchema();
+        jointype = jn.getJoinType();
+        numBuff = jn.getNumBuff();
+    }
+
+
+    /** number of pages of the sorted files read ahead **/
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+
+    /** most runs read by the final merge of the right input **/
+
+    public static int finalRuns(int numBuff) {
+        return Math.max(1, numBuff - 2);
+    }
+
+
+    /** The range condition whose left attribute the left input is sorted
+     ** on, null if the join has none
+     **/
+
+    public static Condition getSweepCondition(Join jn) {
+        Vector<Condition> conds = jn.getConditions();
+        for (int i = 0; i < conds.size(); i++) {
+            if (conds.elementAt(i).isRange()) {
+                return conds.elementAt(i);
+            }
+        }
+        return null;
+    }
+
+
+    /** During open finds the bounds of the sweep attribute,
+     ** sorts the right input and writes the sorted left input
+     **/
+
+    public boolean open() {
+        /** select number of tuples per batch **/
+        int tuplesize = schema.getTupleSize();
+        batchsize = Batch.getPageSize() / tuplesize;
+        outlayout = schema.getTupleLayout();
+
+        leftindexes = leftIndexes();
+        rightindexes = rightIndexes();
+        bindResidual();
+
+        Condition sweep = getSweepCondition(this);
+        if (sweep == null) {
+            System.out.println("RangeJoin: the join has no range condition");
+            return false;
+        }
+        Attribute leftattr = sweep.getLhs();
+        leftindex = left.getSchema().indexOf(leftattr);
+        Vector<Condition> lower = new Vector<>();
+        Vector<Condition> upper = new Vector<>();
+        for (int i = 0; i < conditions.size(); i++) {
+            Condition cn = conditions.elementAt(i);
+            if (!cn.isRange() || !cn.getLhs().equals(leftattr)) {
+                continue;
+            }
+            if (cn.getExprType() == Condition.GREATERTHAN || cn.getExprType() == Condition.GTOE) {
+                lower.add(cn);
+            } else {
+                upper.add(cn);
+            }
+        }
+        lowerindexes = new int[lower.size()];
+        lowertypes = new int[lower.size()];
+        for (int i = 0; i < lowerindexes.length; i++) {
+            Condition cn = lower.elementAt(i);
+            lowerindexes[i] = right.getSchema().indexOf((Attribute) cn.getRhs());
+            lowertypes[i] = cn.getExprType();
+        }
+        upperindexes = new int[upper.size()];
+        uppertypes = new int[upper.size()];
+        for (int i = 0; i < upperindexes.length; i++) {
+            Condition cn = upper.elementAt(i);
+            upperindexes[i] = right.getSchema().indexOf((Attribute) cn.getRhs());
+            uppertypes[i] = cn.getExprType();
+        }
+
+        /** the right input is sorted on the first lower bound, the
+         ** start of the ranges then only moves forward
+         **/
+        Vector<Attribute> leftattrs = new Vector<>();
+        leftattrs.add(leftattr);
+        Vector<Attribute> rightattrs = new Vector<>();
+        rightattrs.add((Attribute) (lower.isEmpty() ? upper.elementAt(0).getRhs()
+                : lower.elementAt(0).getRhs()));
+
+        SortMerge sortedLeft = new SortMerge(left, leftattrs);
+        sortedLeft.setNumBuff(numBuff);
+        sortedLeft.setPrefetch(prefetch);
+        if (!sortedLeft.open() || !writeLeft(sortedLeft)) {
+            return false;
+        }
+        sortedLeft.close();
+
+        sortedRight = new SortMerge(right, rightattrs);
+        sortedRight.setNumBuff(numBuff);
+        sortedRight.setFinalRuns(finalRuns(numBuff));
+        sortedRight.setPrefetch(prefetch);
+        if (!sortedRight.open()) {
+            return false;
+        }
+
+        rightbatch = null;
+        rcurs = 0;
+        righttuple = null;
+        startpage = 0;
+        startslot = 0;
+        cachedno = -1;
+        cached = null;
+        eos = false;
+        return true;
+    }
+
+    /** writes the sorted left input into a table file **/
+
+    protected boolean writeLeft(SortMerge sortedLeft) {
+        filenum++;
+        filename = "RJtemp-" + filenum;
+        Schema leftschema = left.getSchema();
+        int recordsize = new PageLayout(leftschema).getRecordSize();
+        int pagesize = Math.max(Batch.getPageSize(), PageLayout.PAGE_HEADER + recordsize);
+        try {
+            TableFileWriter out = new TableFileWriter(filename, leftschema, pagesize);
+            Batch page;
+            while ((page = sortedLeft.next()) != null) {
+                for (int i = 0; i < page.size(); i++) {
+                    out.add(page.elementAt(i));
+                }
+            }
+            out.close();
+            table = new TableFile(filename, leftschema);
+        } catch (IOException io) {
+            System.out.println("RangeJoin:writing the temporary file error");
+            return false;
+        }
+        layout = table.getLayout();
+        numpages = table.getNumPages();
+        return true;
+    }
+
+
+    /** from the sorted inputs selects the tuples satisfying join condition
+     ** And returns a page of output tuples
+     **/
+
+    public Batch next() {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            if (righttuple == null) {
+                righttuple = nextRight();
+                if (righttuple == null) {
+                    eos = true;
+                    break;
+                }
+                findStart();
+                lpage = startpage;
+                lslot = startslot;
+            }
+            Batch page = leftPage(lpage);
+            if (page == null) {
+                /** the range ends with the left file **/
+                righttuple = null;
+                continue;
+            }
+            Tuple lefttuple = page.elementAt(lslot);
+            if (!checkBounds(lefttuple, upperindexes, uppertypes)) {
+                /** the left tuples after it are above the upper bound too **/
+                righttuple = null;
+                continue;
+            }
+            lslot++;
+            if (lslot == page.size()) {
+                lpage++;
+                lslot = 0;
+            }
+            if (lefttuple.checkJoin(righttuple, leftindexes, rightindexes) && checkResidual(lefttuple, righttuple)) {
+                outbatch.add(lefttuple.joinWith(righttuple, outlayout));
+            }
+        }
+        if (outbatch.isEmpty()) {
+            close();
+            return null;
+        }
+        return outbatch;
+    }
+
+    /** moves the start of the ranges past the left tuples
+     ** below the first lower bound of righttuple
+     **/
+
+    protected void findStart() {
+        if (lowerindexes.length == 0) {
+            return;
+        }
+        Batch page;
+        while ((page = leftPage(startpage)) != null) {
+            Tuple lefttuple = page.elementAt(startslot);
+            if (lefttuple.checkJoin(righttuple, leftindex, lowerindexes[0], lowertypes[0])) {
+                return;
+            }
+            startslot++;
+            if (startslot == page.size()) {
+                startpage++;
+                startslot = 0;
+            }
+        }
+    }
+
+    /** whether the sweep attribute of lefttuple satisfies the bounds **/
+
+    protected boolean checkBounds(Tuple lefttuple, int[] indexes, int[] types) {
+        for (int i = 0; i < indexes.length; i++) {
+            if (!lefttuple.checkJoin(righttuple, leftindex, indexes[i], types[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** the decoded page of the left file, null past its end **/
+
+    protected Batch leftPage(int pageno) {
+        if (pageno >= numpages) {
+            return null;
+        }
+        if (pageno != cachedno) {
+            try {
+                BufferPool.Frame frame = BufferPool.pin(table, pageno);
+                ByteBuffer buf = frame.getBuffer();
+                Vector<Tuple> tuples = new Vector<>();
+                layout.readPage(buf, table.pageBase(pageno), tuples);
+                BufferPool.unpin(frame);
+                cached = new Batch(tuples.size());
+                for (int i = 0; i < tuples.size(); i++) {
+                    cached.add(tuples.elementAt(i));
+                }
+                cachedno = pageno;
+            } catch (IOException io) {
+                System.out.println("RangeJoin:error in reading the temporary file");
+                System.exit(1);
+            }
+        }
+        return cached;
+    }
+
+    /** next right tuple, null at the end of the right input **/
+
+    protected Tuple nextRight() {
+        while (rightbatch == null || rcurs == rightbatch.size()) {
+            rightbatch = sortedRight.next();
+            rcurs = 0;
+            if (rightbatch == null) {
+                return null;
+            }
+        }
+        return rightbatch.elementAt(rcurs++);
+    }
+
+
+    /** Close the operator */
+    public boolean close() {
+        if (sortedRight != null) {
+            sortedRight.close();
+            sortedRight = null;
+        }
+        if (table != null) {
+            try {
+                table.close();
+            } catch (IOException io) {
+                System.out.println("RangeJoin:error in closing the temporary file");
+            }
+            table = null;
+            BufferPool.invalidate(filename);
+            File f = new File(filename);
+            f.delete();
+        }
+        return true;
+    }
+}
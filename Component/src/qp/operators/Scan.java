@@ -8,6 +8,7 @@ package qp.operators;
 import qp.utils.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
 /** Scan operator - read data from a file */
@@ -21,8 +22,46 @@ public class Scan extends Operator {
     
     ObjectInputStream in;      // Input file being scanned
     
+    /** When the table has been converted to the binary page format
+     ** whole pages are read from this file into frames of the BufferPool
+     **/
+    TableFile table;
+    BufferPool.Frame frame; // Frame pinned for the current file page
+    ByteBuffer pagebuf;     // Buffer holding the current file page
+    int pagecount;          // Number of tuples in the current file page
+    int pagecurs;           // Cursor in the current file page
+    int pageno;             // Next file page to be read
+    int firstpage;          // First file page of the scanned range
+    int lastpage;           // End (exclusive) of the scanned range, -1 for the end of the file
+    int endpage;            // End of the range in this file
+    
+    /** In mapped mode the table file is memory mapped once and shared
+     ** by all the following opens, the tuples returned read their values
+     ** straight from the mapping (see MappedTuple)
+     **/
+    boolean mapped;
+    ByteBuffer mapbuf;      // The mapped table file
+    int pagebase;           // Offset of the current page in pagebuf
+    
     boolean eos;            // To indicate whether end of stream reached or not
     
+    /** The pages for next() are read ahead by a Prefetcher
+     ** thread when the prefetch depth is set
+     **/
+    int prefetch;           // Number of pages read ahead
+    Prefetcher prefetcher;
+    
+    /** Filters of the values of the join attributes handed down by the
+     ** joins above, only the tuples passing all of them are returned
+     ** by next() and nextColumns()
+     **/
+    BoundCondition[] filters;
+    
+    /** In late materialization only some columns of the records are
+     ** returned, with their row ids, null for the whole records
+     **/
+    RecordProjection projection;
+    
     
     /** Constructor - just save filename  */
     
@@ -30,6 +69,9 @@ public class Scan extends Operator {
         super(type);
         this.tabname = tabname;
         filename = tabname + ".tbl";
+        firstpage = 0;
+        lastpage = -1;
+        filters = new BoundCondition[0];
         
     }
     
@@ -38,6 +80,84 @@ public class Scan extends Operator {
         return tabname;
     }
     
+    /** scan the memory mapped table file, if the table is in binary format **/
+    
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+    
+    public boolean isMapped() {
+        return mapped;
+    }
+    
+    /** number of pages next() reads ahead in the background, 0 for none **/
+    
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+    
+    public int getPrefetch() {
+        return prefetch;
+    }
+    
+    /** return only the columns of attrs, followed by the row id of the
+     ** record if rowids is set; the schema of the scan becomes the schema
+     ** of these tuples, attrs null for all of them. Only for a table
+     ** in binary format
+     **/
+    
+    public void setColumns(Vector<?> attrs, boolean rowids) {
+        if (attrs == null) {
+            schema = getTableSchema();
+            projection = null;
+            return;
+        }
+        projection = new RecordProjection(tabname, getTableSchema(), attrs, rowids);
+        schema = projection.getSchema();
+    }
+    
+    public RecordProjection getProjection() {
+        return projection;
+    }
+    
+    /** schema of the records in the table **/
+    
+    public Schema getTableSchema() {
+        return projection == null ? schema : projection.getTableSchema();
+    }
+    
+    /** drop the tuples whose value of attr is not in the filter **/
+    
+    public void addRuntimeFilter(Attribute attr, BloomFilter filter) {
+        BoundCondition[] grown = new BoundCondition[filters.length + 1];
+        System.arraycopy(filters, 0, grown, 0, filters.length);
+        grown[filters.length] = BoundCondition.bindFilter(attr, schema, filter);
+        filters = grown;
+    }
+    
+    /** scan only the file pages first..last-1 of a binary table **/
+    
+    public void setPageRange(int first, int last) {
+        firstpage = first;
+        lastpage = last;
+    }
+    
+    /** number of file pages of the table, -1 if it is not in binary format **/
+    
+    public int getNumPages() {
+        if (!TableFile.exists(tabname)) {
+            return -1;
+        }
+        try {
+            TableFile file = new TableFile(TableFile.fileName(tabname), getTableSchema());
+            int numpages = file.getNumPages();
+            file.close();
+            return numpages;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+    
     /** Open file prepare a stream pointer to read input file */
     
     public boolean open() {
@@ -48,6 +168,43 @@ public class Scan extends Operator {
         
         //System.out.println("Scan:----------Scanning:"+tabname);
         eos = false;
+        stopPrefetch();
+        unpinPage();
+        table = null;
+        mapbuf = null;
+        
+        if (mapped) {
+            try {
+                table = TableFile.mapped(TableFile.fileName(tabname), getTableSchema());
+                mapbuf = table.getMappedBuffer();
+            } catch (IOException e) {
+                /** not converted or cannot be mapped, read it as usual **/
+                table = null;
+            }
+        }
+        if (table == null && TableFile.exists(tabname)) {
+            try {
+                table = new TableFile(TableFile.fileName(tabname), getTableSchema());
+            } catch (IOException e) {
+                System.err.println(" Error reading " + TableFile.fileName(tabname) + ": " + e.getMessage());
+                return false;
+            }
+        }
+        if (table != null) {
+            frame = null;
+            pagecount = 0;
+            pagecurs = 0;
+            pageno = firstpage;
+            endpage = table.getNumPages();
+            if (lastpage >= 0 && lastpage < endpage) {
+                endpage = lastpage;
+            }
+            return true;
+        }
+        if (projection != null && projection.hasRowIds()) {
+            System.err.println(" No row ids without " + TableFile.fileName(tabname));
+            return false;
+        }
         
         try {
             in = new ObjectInputStream(new FileInputStream(filename));
@@ -67,21 +224,52 @@ public class Scan extends Operator {
     
     public Batch next() {
         //System.out.println("Scan:-----------------in next--------------");
+        Batch tuples;
+        if (prefetch > 0) {
+            if (prefetcher == null) {
+                prefetcher = new Prefetcher(new Prefetcher.Source() {
+                    public Batch read() {
+                        return readBatch();
+                    }
+                    
+                    public void close() {
+                    }
+                }, prefetch);
+            }
+            tuples = prefetcher.next();
+        } else {
+            tuples = readBatch();
+        }
         /** The file reached its end and no more to read **/
-        
-        if (eos) {
+        if (tuples == null) {
             close();
+        }
+        return tuples;
+    }
+    
+    
+    /** Reads the next page of tuples, null at the end of the file **/
+    
+    protected Batch readBatch() {
+        if (eos) {
             return null;
         }
         
+        if (table != null) {
+            return nextFromPages();
+        }
+        
         Batch tuples = new Batch(batchsize);
         
         while (!tuples.isFull()) {
             try {
                 Tuple data = (Tuple) in.readObject();
+                if (projection != null)
+                    data = projection.project(data);
                 //System.out.print("SCAN:");
                 //Debug.PPrint(data);
-                tuples.add(data);
+                if (BoundCondition.testAll(filters, data))
+                    tuples.add(data);
             } catch (ClassNotFoundException cnf) {
                 System.err.println("Scan:Class not found for reading file  " + filename);
                 System.exit(1);
@@ -99,14 +287,170 @@ public class Scan extends Operator {
         return tuples;
     }
     
+    
+    /** Fill the out batch from the file pages, a new file page is read
+     ** with one read call once the previous one is consumed. In mapped
+     ** mode the tuples just point to their records in the mapping
+     **/
+    
+    protected Batch nextFromPages() {
+        Batch tuples = new Batch(batchsize);
+        PageLayout layout = table.getLayout();
+        while (!tuples.isFull()) {
+            if (pagecurs == pagecount && !nextPage()) {
+                eos = true;
+                break;
+            }
+            Tuple data;
+            if (projection != null) {
+                data = projection.read(table, pagebuf, pageno - 1, pagecurs);
+            } else if (mapbuf != null) {
+                data = new MappedTuple(mapbuf, layout, layout.recordStart(pagebase, pagecurs));
+            } else {
+                data = layout.readTuple(pagebuf, pagebase, pagecurs);
+            }
+            if (BoundCondition.testAll(filters, data))
+                tuples.add(data);
+            pagecurs++;
+        }
+        if (tuples.isEmpty()) {
+            return null;
+        }
+        return tuples;
+    }
+    
+    
+    /** A binary table is decoded straight into the columns,
+     ** a column at a time for each run of records of a file page
+     **/
+    
+    public ColumnBatch nextColumns() {
+        if (!isColumnar()) {
+            return super.nextColumns();
+        }
+        if (eos) {
+            close();
+            return null;
+        }
+        PageLayout layout = table.getLayout();
+        ColumnBatch cols;
+        do {
+            cols = new ColumnBatch(layout.getTupleLayout(), batchsize);
+            while (!cols.isFull()) {
+                if (pagecurs == pagecount && !nextPage()) {
+                    eos = true;
+                    break;
+                }
+                int num = Math.min(pagecount - pagecurs, cols.capacity() - cols.size());
+                layout.readColumns(pagebuf, pagebase, pagecurs, num, cols);
+                pagecurs += num;
+            }
+            BoundCondition.selectAll(filters, cols);
+        } while (cols.numSelected() == 0 && !eos);
+        if (cols.numSelected() == 0) {
+            close();
+            return null;
+        }
+        return cols;
+    }
+    
+    
+    /** binary tables are read a column at a time by nextColumns,
+     ** unless only some of the columns are returned
+     **/
+    
+    public boolean isColumnar() {
+        return table != null && projection == null;
+    }
+    
+    
+    /** Hands the records of the file pages to the processor until out
+     ** is full, only for a binary table (see isColumnar)
+     **/
+    
+    public Batch nextProcessed(PageProcessor processor, int outsize) {
+        if (eos) {
+            close();
+            return null;
+        }
+        Batch out = new Batch(outsize);
+        while (!out.isFull()) {
+            if (pagecurs == pagecount && !nextPage()) {
+                eos = true;
+                break;
+            }
+            pagecurs = processor.process(pagebuf, pagebase, pagecurs, pagecount, out);
+        }
+        if (out.isEmpty()) {
+            close();
+            return null;
+        }
+        return out;
+    }
+    
+    
+    /** Move to the next non empty file page, false at the end of the file **/
+    
+    protected boolean nextPage() {
+        PageLayout layout = table.getLayout();
+        while (pagecurs == pagecount) {
+            if (pageno >= endpage) {
+                return false;
+            }
+            unpinPage();
+            try {
+                if (mapbuf != null) {
+                    pagebuf = mapbuf;
+                } else {
+                    frame = BufferPool.pin(table, pageno);
+                    pagebuf = frame.getBuffer();
+                }
+            } catch (IOException e) {
+                System.err.println("Scan:Error reading " + table.getFileName() + ": " + e.getMessage());
+                System.exit(1);
+            }
+            pagebase = table.pageBase(pageno);
+            pagecount = layout.getNumTuples(pagebuf, pagebase);
+            pagecurs = 0;
+            pageno++;
+        }
+        return true;
+    }
+    
+    /** Stop reading ahead, the reader thread has left the file afterwards **/
+    
+    protected void stopPrefetch() {
+        if (prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
+    }
+    
+    
+    /** Release the frame of the current file page **/
+    
+    protected void unpinPage() {
+        if (frame != null) {
+            BufferPool.unpin(frame);
+            frame = null;
+        }
+    }
+    
+    
     /** Close the file.. This routine is called when the end of filed
      ** is already reached
      **/
     
     
     public boolean close() {
+        stopPrefetch();
         try {
-            in.close();
+            if (table != null) {
+                unpinPage();
+                table.close();
+            } else {
+                in.close();
+            }
         } catch (IOException e) {
             System.err.println("Scan: Error closing " + filename);
             return false;
@@ -118,7 +462,13 @@ public class Scan extends Operator {
     public Object clone() {
         String newtab = tabname;
         Scan newscan = new Scan(newtab, optype);
-        newscan.setSchema((Schema) schema.clone());
+        newscan.setSchema((Schema) getTableSchema().clone());
+        if (projection != null) {
+            newscan.setColumns(schema.getAttList(), projection.hasRowIds());
+        }
+        newscan.setMapped(mapped);
+        newscan.setPrefetch(prefetch);
+        newscan.setPageRange(firstpage, lastpage);
         return newscan;
     }
 }
@@ -11,7 +11,7 @@ import java.util.Vector;
 public class Select extends Operator {
 
     Operator base;  // base operator
-    Condition con; //select condition
+    Vector<Condition> conditions; // select conditions on the base, all to be satisfied
     int batchsize;  // number of tuples per outbatch
 
     /**
@@ -23,6 +23,14 @@ public class Select extends Operator {
     Batch inbatch;   // This is the current input buffer
     Batch outbatch;  // This is the current output buffer
     int start;       // Cursor position in the input buffer
+    BoundCondition[] bound;  // The conditions bound to the schema in open
+
+    /** When the base produces columns the conditions are evaluated
+     ** over a whole column at once, see nextColumns
+     **/
+    boolean columnar;
+    ColumnBatch incols;  // Current filtered input columns
+    int colcurs;         // Cursor in the selection vector of incols
 
 
     /**
@@ -32,7 +40,8 @@ public class Select extends Operator {
     public Select(Operator base, Condition con, int type) {
         super(type);
         this.base = base;
-        this.con = con;
+        this.conditions = new Vector<>();
+        conditions.add(con);
 
     }
 
@@ -45,11 +54,24 @@ public class Select extends Operator {
     }
 
     public void setCondition(Condition cn) {
-        this.con = cn;
+        conditions.clear();
+        conditions.add(cn);
     }
 
+    /** first of the conditions **/
+
     public Condition getCondition() {
-        return con;
+        return conditions.elementAt(0);
+    }
+
+    /** further condition on the same base, evaluated in the same pass **/
+
+    public void addCondition(Condition cn) {
+        conditions.add(cn);
+    }
+
+    public Vector<Condition> getConditions() {
+        return conditions;
     }
 
 
@@ -66,10 +88,15 @@ public class Select extends Operator {
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
 
-        if (base.open())
-            return true;
-        else
+        bound = BoundCondition.bindAll(conditions, schema);
+
+        if (!base.open())
             return false;
+
+        columnar = base.isColumnar();
+        incols = null;
+        colcurs = 0;
+        return true;
     }
 
 
@@ -88,6 +115,10 @@ public class Select extends Operator {
             return null;
         }
 
+        if (columnar) {
+            return nextFromColumns();
+        }
+
         /** An output buffer is initiated**/
         outbatch = new Batch(batchsize);
 
@@ -130,6 +161,59 @@ public class Select extends Operator {
     }
 
 
+    /**
+     * Fills the output buffer with the rows selected in the
+     * * filtered columns coming from nextColumns
+     **/
+
+    protected Batch nextFromColumns() {
+        outbatch = new Batch(batchsize);
+        while (!outbatch.isFull()) {
+            if (incols == null || colcurs == incols.numSelected()) {
+                incols = nextColumns();
+                colcurs = 0;
+                if (incols == null) {
+                    eos = true;
+                    break;
+                }
+            }
+            int num = Math.min(incols.numSelected() - colcurs, batchsize - outbatch.size());
+            incols.appendRows(outbatch, colcurs, colcurs + num);
+            colcurs += num;
+        }
+        if (outbatch.isEmpty()) {
+            close();
+            return null;
+        }
+        return outbatch;
+    }
+
+
+    /**
+     * Filters a page of columns from the base operator by
+     * * evaluating each condition over the whole column, only
+     * * the selection vector of the page is changed
+     **/
+
+    public ColumnBatch nextColumns() {
+        if (!columnar) {
+            return super.nextColumns();
+        }
+        ColumnBatch cols;
+        while ((cols = base.nextColumns()) != null) {
+            BoundCondition.selectAll(bound, cols);
+            if (cols.numSelected() > 0) {
+                return cols;
+            }
+        }
+        return null;
+    }
+
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+
     /**
      * closes the output connection
      * * i.e., no more pages to output
@@ -147,94 +231,20 @@ public class Select extends Operator {
 
 
     /**
-     * To check whether the selection condition is satisfied for
+     * To check whether the selection conditions are satisfied for
      * the present tuple
      **/
 
     protected boolean checkCondition(Tuple tuple) {
-        Attribute attr = con.getLhs();
-        int index = schema.indexOf(attr);
-        int datatype = schema.typeOf(attr);
-        Object srcValue = tuple.dataAt(index);
-        String checkValue = (String) con.getRhs();
-        int exprtype = con.getExprType();
-
-        if (datatype == Attribute.INT) {
-            int srcVal = ((Integer) srcValue).intValue();
-            int checkVal = Integer.parseInt(checkValue);
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal)
-                    return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal)
-                    return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal)
-                    return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal)
-                    return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal)
-                    return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal)
-                    return true;
-            } else {
-                System.out.println("Select:Incorrect condition operator");
-            }
-        } else if (datatype == Attribute.STRING) {
-            String srcVal = (String) srcValue;
-            int flag = srcVal.compareTo(checkValue);
-
-            if (exprtype == Condition.LESSTHAN) {
-                if (flag < 0)
-                    return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (flag > 0)
-                    return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (flag <= 0)
-                    return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (flag >= 0)
-                    return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (flag == 0)
-                    return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (flag != 0)
-                    return true;
-            } else {
-                System.out.println("Select: Incorrect condition operator");
-            }
-
-        } else if (datatype == Attribute.REAL) {
-            float srcVal = ((Float) srcValue).floatValue();
-            float checkVal = Float.parseFloat(checkValue);
-            if (exprtype == Condition.LESSTHAN) {
-                if (srcVal < checkVal) return true;
-            } else if (exprtype == Condition.GREATERTHAN) {
-                if (srcVal > checkVal) return true;
-            } else if (exprtype == Condition.LTOE) {
-                if (srcVal <= checkVal) return true;
-            } else if (exprtype == Condition.GTOE) {
-                if (srcVal >= checkVal) return true;
-            } else if (exprtype == Condition.EQUAL) {
-                if (srcVal == checkVal) return true;
-            } else if (exprtype == Condition.NOTEQUAL) {
-                if (srcVal != checkVal) return true;
-            } else {
-                System.out.println("Select:Incorrect condition operator");
-            }
-        }
-        return false;
+        return BoundCondition.testAll(bound, tuple);
     }
 
     public Object clone() {
         Operator newbase = (Operator) base.clone();
-        Condition newcon = (Condition) con.clone();
-        Select newsel = new Select(newbase, newcon, optype);
+        Select newsel = new Select(newbase, (Condition) getCondition().clone(), optype);
+        for (int i = 1; i < conditions.size(); i++) {
+            newsel.addCondition((Condition) conditions.elementAt(i).clone());
+        }
         newsel.setSchema(newbase.getSchema());
         return newsel;
     }
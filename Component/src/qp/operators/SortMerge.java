@@ -14,7 +14,21 @@ public class SortMerge extends Operator {
 
     protected List<File> sortedFiles;
     
-    protected ObjectInputStream in;
+    protected LoserTree merger;  // Final merge of the runs left, read by next()
+    protected int finalRuns;     // Most runs the final merge reads, numBuff-1 if not set
+    protected int prefetch;      // Number of pages read ahead from each file
+
+    static int filenum = 0;      // To get unique file names for each sort
+    protected String prefix;     // Prefix of the names of the files of this sort
+
+    protected BloomFilter keyfilter;  // Collects the values of the first sort attribute
+
+    /** The selection tree of the run generation **/
+    private Tuple[] heapTuples;  // Tuples in memory, a binary heap
+    private int[] heapRuns;      // Run each of them goes to
+    private int heapSize;
+    private Batch inbatch;       // Page of the input being read
+    private int incurs;          // Cursor in inbatch
 
     public SortMerge(Operator base, Vector as, int opType) {
         super(opType);
@@ -28,8 +42,21 @@ public class SortMerge extends Operator {
         this.attrSet = as;
     }
     
+    /** the values of the first sort attribute are added to the filter
+     ** while the runs are generated
+     **/
+
+    public void setKeyFilter(BloomFilter filter) {
+        this.keyfilter = filter;
+    }
+
     public boolean open() {
 //        System.out.println("SortMerge:-----------------in open--------------");
+        if(numBuff < 3) {
+            // the runs could not be merged two at a time
+            System.out.println("SortMerge: at least 3 buffers are needed");
+            return false;
+        }
         if(!base.open()) {
             return false;
         } else {
@@ -49,87 +76,217 @@ public class SortMerge extends Operator {
             }
 
             // Phase 1: Generate sorted runs
+            filenum++;
+            prefix = "SM" + filenum + "-";
             sortedFiles = new ArrayList<>();
 //            System.out.println("generate sort runs");
             generateSortedRuns();
 
-            // Phase 2: Merge sorted runs
+            // Phase 2: Merge sorted runs until they can be merged at once
 //            System.out.println("merge sort run: ");
             mergeSortedFiles();
 
-            try {
-                in = new ObjectInputStream(new FileInputStream(sortedFiles.get(0)));
-            } catch (Exception e) {
-                System.err.println(" Error reading " + sortedFiles.get(0));
-                return false;
-            }
+            // the last merge is not written, next() returns its tuples
+            merger = openRuns(sortedFiles);
             return true;
         }
     }
     
+    /** next page of the final merge, null when all the runs are merged **/
+    
     public Batch next() {
 //        System.out.println("SortMerge:-----------------in next--------------");
-        if(sortedFiles.size() != 1) {
-            System.out.println("There is something wrong with sort-merge process. ");
+        if(merger == null) {
+            return null;
         }
-        try {
-            Batch batch = (Batch) in.readObject();
-//            System.out.println();
-//            System.out.println();
-//            Debug.PPrint(batch);
-//            System.out.println();
-//            System.out.println();
-            return batch;
-        } catch (IOException e) {
+        Batch batch = new Batch(batchSize);
+        Tuple tuple;
+        while(!batch.isFull() && (tuple = merger.next()) != null) {
+            batch.add(tuple);
+        }
+        if(batch.isEmpty()) {
             return null;
-        } catch (ClassNotFoundException e) {
-            System.out.println("File not found. ");
         }
-        return null;
+//            Debug.PPrint(batch);
+        return batch;
     }
     
     public boolean close() {
-        sortedFiles.get(0).delete();
-        try {
-            in.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if(merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if(sortedFiles != null) {
+            for(File file : sortedFiles) {
+                file.delete();
+            }
         }
         return true;
     }
     
+    /**
+     * Replacement selection: the tuples of numBuff-2 pages are kept in a
+     * selection tree (a binary heap), the other two buffers hold the input
+     * page and the output page. The tree is ordered by the run of each
+     * tuple and then its key. The smallest one goes to the current run and is replaced by
+     * the next input tuple, which joins the current run if it is not
+     * smaller than the tuple written and the next run otherwise. The runs
+     * are twice as long as the memory on average and a sorted input is a
+     * single run
+     */
     public void generateSortedRuns() {
+        int capacity = Math.max(1, (numBuff - 2) * batchSize);
+        heapTuples = new Tuple[capacity];
+        heapRuns = new int[capacity];
+        heapSize = 0;
+        inbatch = null;
+        incurs = 0;
+
+        Tuple tuple;
+        while(heapSize < capacity && (tuple = nextInput()) != null) {
+            heapAdd(tuple, 1);
+        }
+
         int numRuns = 0;
-        Batch batch = base.next();
-        while(batch != null) {
-            Block run = new Block(numBuff, batchSize);
-            while(!run.isFull() && batch != null) {
-//                System.out.println("batch size: " + batch.size());
-                run.addBatch(batch);
-                batch = base.next();
+        ObjectOutputStream out = null;
+        Batch outputBuffer = new Batch(batchSize);
+        while(heapSize > 0) {
+            int run = heapRuns[0];
+            Tuple minTuple = heapTuples[0];
+            if(run != numRuns) {
+                // the tuples of the current run are all written
+                if(out != null) {
+                    if(!outputBuffer.isEmpty()) {
+                        appendToObjectOutputStream(out, outputBuffer);
+                        outputBuffer.clear();
+                    }
+                    closeObjectOutputStream(out);
+                }
+                numRuns = run;
+                File result = new File(prefix + "SMTemp-" + numRuns);
+                out = initObjectOutputStream(result);
+                sortedFiles.add(result);
+            }
+            outputBuffer.add(minTuple);
+            if(outputBuffer.isFull()) {
+                appendToObjectOutputStream(out, outputBuffer);
+                outputBuffer.clear();
+            }
+
+            tuple = nextInput();
+            if(tuple == null) {
+                heapRemoveFirst();
+            } else if(Tuple.compareTuples(tuple, minTuple, attrIndex) >= 0) {
+                heapReplaceFirst(tuple, run);
+            } else {
+                heapReplaceFirst(tuple, run + 1);
+            }
+        }
+        if(out != null) {
+            if(!outputBuffer.isEmpty()) {
+                appendToObjectOutputStream(out, outputBuffer);
             }
-            numRuns++;
-            List<Tuple> tuples = run.getTuples();
-            Collections.sort(tuples, new AttrComparator(attrIndex));
-
-            Block sortedRun = new Block(numBuff, batchSize);
-            sortedRun.setTuples((Vector) tuples);
-//            System.out.println("run size: " + tuples.size());
-            File result = writeToFile(sortedRun, numRuns);
-            sortedFiles.add(result);
+            closeObjectOutputStream(out);
+        }
+        heapTuples = null;
+        heapRuns = null;
+        inbatch = null;
+        if (numRuns == 0) {
+            // an empty input is sorted into an empty file
+            sortedFiles.add(writeToFile(new Block(numBuff, batchSize), 1));
         }
 //        System.out.println("numRun: " + numRuns);
     }
+
+    /** next tuple of the input, its key is added to the filter **/
+
+    private Tuple nextInput() {
+        while(inbatch == null || incurs == inbatch.size()) {
+            inbatch = base.next();
+            incurs = 0;
+            if(inbatch == null) {
+                return null;
+            }
+        }
+        Tuple t = inbatch.elementAt(incurs++);
+        if(keyfilter != null) {
+            keyfilter.add(t.dataAt(attrIndex[0]));
+        }
+        return t;
+    }
+
+    /** whether the entry i of the heap goes before the entry j **/
+
+    private boolean heapLess(int i, int j) {
+        if(heapRuns[i] != heapRuns[j]) {
+            return heapRuns[i] < heapRuns[j];
+        }
+        return Tuple.compareTuples(heapTuples[i], heapTuples[j], attrIndex) < 0;
+    }
+
+    private void heapSwap(int i, int j) {
+        Tuple t = heapTuples[i];
+        heapTuples[i] = heapTuples[j];
+        heapTuples[j] = t;
+        int r = heapRuns[i];
+        heapRuns[i] = heapRuns[j];
+        heapRuns[j] = r;
+    }
+
+    private void heapAdd(Tuple t, int run) {
+        int i = heapSize++;
+        heapTuples[i] = t;
+        heapRuns[i] = run;
+        while(i > 0 && heapLess(i, (i - 1) / 2)) {
+            heapSwap(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void heapReplaceFirst(Tuple t, int run) {
+        heapTuples[0] = t;
+        heapRuns[0] = run;
+        heapSiftDown(0);
+    }
+
+    private void heapRemoveFirst() {
+        heapSize--;
+        heapTuples[0] = heapTuples[heapSize];
+        heapRuns[0] = heapRuns[heapSize];
+        heapTuples[heapSize] = null;
+        heapSiftDown(0);
+    }
+
+    private void heapSiftDown(int i) {
+        while(true) {
+            int least = i;
+            int l = 2 * i + 1;
+            int r = l + 1;
+            if(l < heapSize && heapLess(l, least)) {
+                least = l;
+            }
+            if(r < heapSize && heapLess(r, least)) {
+                least = r;
+            }
+            if(least == i) {
+                return;
+            }
+            heapSwap(i, least);
+            i = least;
+        }
+    }
     
     /**
      * This is the merge part of the whole sort-merge process
-     * Recursively merge until there are only one run
+     * Recursively merge until there are at most finalRuns runs,
+     * the final merge of those is read by next()
      */
     public void mergeSortedFiles() {
         int inputNumBuff = numBuff - 1;
+        int maxRuns = finalRuns > 0 ? Math.min(finalRuns, inputNumBuff) : inputNumBuff;
         int mergeTimes = 0;
         List<File> resultSortedFiles;
-        while(sortedFiles.size() > 1) {
+        while(sortedFiles.size() > maxRuns) {
             resultSortedFiles = new ArrayList<>();
             int mergeNumRuns = 0;
             for(int i = 0; i * inputNumBuff < sortedFiles.size(); i++) {
@@ -178,168 +335,58 @@ public class SortMerge extends Operator {
     public File mergeSortedRuns(List<File> runs, int mergeTimes, int mergeNumRuns) {
         int inputNumBuff = numBuff - 1;
         int numRuns = runs.size();
-        int runNum;
 
         if (inputNumBuff < numRuns) {
             System.out.println("There are too many runs in input buffers. ");
             return null;
         }
-        ArrayList<ObjectInputStream> inputStreams = new ArrayList<>();
-        try {
-            for (int i = 0; i < numRuns; i++) {
-                ObjectInputStream inputStream = new ObjectInputStream(new FileInputStream(runs.get(i)));
-                inputStreams.add(inputStream);
-//                System.out.println("=======================");
-//                try {
-//                    in = new ObjectInputStream(new FileInputStream(runs.get(i)));
-//                    while (true) {
-//                        Batch batch = getNextBatch(in);
-//                        if (batch == null)
-//                            break;
-//                        for (int j = 0; j < batch.size(); j++) {
-//                            Tuple present = batch.elementAt(j);
-//                            System.out.println("tuple: " + present.dataAt(0) + " " + present.dataAt(1)
-//                                    + " " + present.dataAt(2) + " " + present.dataAt(3));
-//                        }
-//                    }
-//                    System.out.println("======end here=========");
-//                } catch (Exception e) {
-//                    System.err.println(" Error reading " + runs.get(i));
-//                }
-            }
-        } catch (IOException e) {
-            System.out.println("Reading the temporary file error");
-        }
-
-        // real merging process
-        File resultFile = new File("MergedFile-" + mergeTimes + "-" + mergeNumRuns);
-        ObjectOutputStream out = initObjectOutputStream(resultFile);
-
         // we will only use numRun buffer for input even though there could be available buffer
         // because any latter batch can only proceed after all its front batches in the same run
         // has been written to output buffer
-        ArrayList<Batch> inputBatches = new ArrayList<>(numRuns);
-        for (runNum = 0; runNum < numRuns; runNum++) {
-            Batch batch = getNextBatch(inputStreams.get(runNum));
-            inputBatches.add(runNum, batch);
-            if (batch == null) {
-                System.out.println("ERROR: run " + runNum + " is initially empty.");
-            }
-        }
+        LoserTree merger = openRuns(runs);
 
-        Queue<Tuple> inputTuples = new PriorityQueue<>(numRuns, new AttrComparator(attrIndex));
-        Map<Tuple, Integer> tupleToRunNumMap = new HashMap<>(numRuns);
-        for (runNum = 0; runNum < numRuns; runNum++) {
-            Batch batch = inputBatches.get(runNum);
-            Tuple tuple = batch.remove(0);
-            inputTuples.add(tuple);
-            tupleToRunNumMap.put(tuple, runNum);
-            if (batch.isEmpty()) {
-                batch = getNextBatch(inputStreams.get(runNum));
-                inputBatches.set(runNum, batch);
-//                if (batch == null) {
-//                    System.out.println("run " + runNum + " has been completely processed");
-//                }
-            }
-        }
+        // real merging process
+        File resultFile = new File(prefix + "MergedFile-" + mergeTimes + "-" + mergeNumRuns);
+        ObjectOutputStream out = initObjectOutputStream(resultFile);
 
         Batch outputBuffer = new Batch(batchSize);
-        Batch batch;
-
-        while (!inputTuples.isEmpty()) {
+        Tuple minTuple;
+        while ((minTuple = merger.next()) != null) {
             // output minTuple to output buffer and write out result if outputBuffer is full
-            Tuple minTuple = inputTuples.remove();
             outputBuffer.add(minTuple);
             if (outputBuffer.isFull()) {
                 appendToObjectOutputStream(out, outputBuffer);
                 outputBuffer.clear();
-//                System.out.println("==========final result=============");
-//                try {
-//                    ObjectInputStream a = new ObjectInputStream(new FileInputStream(resultFile));
-//                    while (true) {
-//                        batch = getNextBatch(a);
-//                        if (batch == null)
-//                            break;
-//                        for (int j = 0; j < batch.size(); j++) {
-//                            Tuple present = batch.elementAt(j);
-//                            System.out.println("tuple: " + present.dataAt(0) + " " + present.dataAt(1)
-//                                    + " " + present.dataAt(2) + " " + present.dataAt(3));
-//                        }
-//                    }
-//                    System.out.println("=========end=============");
-//                } catch (Exception e) {
-//                    System.err.println(" Error reading " + resultFile);
-//                }
-//                System.out.println();
-            }
-
-            // add a new tuple from the same run into priority queue if exists
-            runNum = tupleToRunNumMap.get(minTuple);
-            batch = inputBatches.get(runNum);
-
-            if (batch != null) {
-//                System.out.println("batch " + runNum + " size " + batch.size());
-                // notEmpty of batch is ensured by the algorithm
-                Tuple tuple = batch.remove(0);
-                inputTuples.add(tuple);
-                tupleToRunNumMap.put(tuple, runNum);
-                if (batch.isEmpty()) {
-                    batch = getNextBatch(inputStreams.get(runNum));
-                    inputBatches.set(runNum, batch);
-//                    if (batch == null) {
-//                        System.out.println("run " + runNum + " has been completely processed");
-//                    }
-                }
             }
         }
         //add the leftover in output buffer
         if(!outputBuffer.isEmpty()) {
-//            System.out.println("add leftover");
             appendToObjectOutputStream(out, outputBuffer);
             outputBuffer.clear();
         }
-        tupleToRunNumMap.clear();
         closeObjectOutputStream(out);
-//        System.out.println("==========final result=============");
-//        try {
-//            ObjectInputStream a = new ObjectInputStream(new FileInputStream(resultFile));
-//            while (true) {
-//                batch = getNextBatch(a);
-//                if (batch == null)
-//                    break;
-//                for (int j = 0; j < batch.size(); j++) {
-//                    Tuple present = batch.elementAt(j);
-//                    System.out.println("tuple: " + present.dataAt(0) + " " + present.dataAt(1)
-//                            + " " + present.dataAt(2) + " " + present.dataAt(3));
-//                }
-//            }
-//            System.out.println();
-//        } catch (Exception e) {
-//            System.err.println(" Error reading " + resultFile);
-//        }
-//        System.out.println();
+        merger.close();
         return resultFile;
     }
 
+    /** the merge of the sorted files **/
 
-    private Batch getNextBatch(ObjectInputStream inputStream) {
+    protected LoserTree openRuns(List<File> runs) {
+        Prefetcher[] inputStreams = new Prefetcher[runs.size()];
         try {
-            Batch batch = (Batch) inputStream.readObject();
-            if(batch.isEmpty()) {
-                System.out.println("batch is empty");
+            for (int i = 0; i < inputStreams.length; i++) {
+                inputStreams[i] = Prefetcher.ofFile(runs.get(i).getPath(), prefetch);
             }
-            return batch;
         } catch (IOException e) {
-            return null;
-        } catch (ClassNotFoundException e) {
-            System.out.println("Class not found. ");
+            System.out.println("Reading the temporary file error");
         }
-        return null;
+        return new LoserTree(inputStreams, attrIndex);
     }
 
+
     public File writeToFile(Block run, int numRuns) {
         try {
-            File temp = new File("SMTemp-" + numRuns);
+            File temp = new File(prefix + "SMTemp-" + numRuns);
             ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temp));
             for(Batch batch : run.getBatches()) {
                 out.writeObject(batch);
@@ -354,7 +401,8 @@ public class SortMerge extends Operator {
 
     public ObjectOutputStream initObjectOutputStream(File file) {
         try {
-            return new ObjectOutputStream(new FileOutputStream(file, true));
+            // a merged file left by an earlier run is overwritten, not appended to
+            return new ObjectOutputStream(new FileOutputStream(file));
         } catch (IOException io) {
             System.out.println("SortMerge: cannot initialize object output stream");
         }
@@ -385,17 +433,127 @@ public class SortMerge extends Operator {
         }
     }
     
-    class AttrComparator implements Comparator<Tuple> {
+    /**
+     * Merges sorted runs with a tree of losers. The leaves are the cursors
+     * of the runs, each inner node keeps the run that lost the match there
+     * and the root the overall winner, the run with the smallest tuple.
+     * After that tuple is taken only the matches on the path from its leaf
+     * are played again: log2(k) comparisons per tuple and no allocation
+     * or hashing. Equal tuples come out in the order of their runs
+     */
+    static class LoserTree {
+        private Prefetcher[] inputs;
         private int[] attrIndex;
-        
-        public AttrComparator(int[] attrIndex) {
+        private Batch[] pages;     // Page read from each run
+        private int[] cursors;     // Position of the current tuple in its page
+        private Tuple[] current;   // Smallest tuple left in each run, null at its end
+        private int[] tree;        // tree[0] the winner, tree[1..k-1] the losers
+        private int k;
+
+        LoserTree(Prefetcher[] inputs, int[] attrIndex) {
+            this.inputs = inputs;
             this.attrIndex = attrIndex;
+            k = inputs.length;
+            pages = new Batch[k];
+            cursors = new int[k];
+            current = new Tuple[k];
+            for (int run = 0; run < k; run++) {
+                pages[run] = inputs[run].next();
+                current[run] = firstTuple(run);
+            }
+            tree = new int[Math.max(1, k)];
+            if (k > 0) {
+                tree[0] = play(1);
+            }
+        }
+
+        /** winner of the subtree at node, leaves are the nodes k..2k-1 **/
+
+        private int play(int node) {
+            if (node >= k) {
+                return node - k;
+            }
+            int a = play(2 * node);
+            int b = play(2 * node + 1);
+            if (less(a, b)) {
+                tree[node] = b;
+                return a;
+            }
+            tree[node] = a;
+            return b;
+        }
+
+        /** whether the current tuple of run a comes before that of run b **/
+
+        private boolean less(int a, int b) {
+            if (current[a] == null) {
+                return false;
+            }
+            if (current[b] == null) {
+                return true;
+            }
+            int cmp = Tuple.compareTuples(current[a], current[b], attrIndex);
+            return cmp < 0 || (cmp == 0 && a < b);
+        }
+
+        private Tuple firstTuple(int run) {
+            cursors[run] = 0;
+            if (pages[run] == null || pages[run].isEmpty()) {
+                return null;
+            }
+            return pages[run].elementAt(0);
         }
-        
-        @Override
-        public int compare(Tuple t1, Tuple t2) {
-            return Tuple.compareTuples(t1, t2, attrIndex);
+
+        /** the smallest tuple left, null when all the runs are merged **/
+
+        Tuple next() {
+            if (k == 0) {
+                return null;
+            }
+            int winner = tree[0];
+            Tuple min = current[winner];
+            if (min == null) {
+                return null;
+            }
+            cursors[winner]++;
+            if (cursors[winner] < pages[winner].size()) {
+                current[winner] = pages[winner].elementAt(cursors[winner]);
+            } else {
+                pages[winner] = inputs[winner].next();
+                current[winner] = firstTuple(winner);
+            }
+            for (int node = (winner + k) / 2; node > 0; node = node / 2) {
+                if (less(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+            return min;
         }
+
+        void close() {
+            for (int i = 0; i < k; i++) {
+                if (inputs[i] != null) {
+                    inputs[i].close();
+                }
+            }
+        }
+    }
+
+    /** number of pages read ahead from each of the files being read **/
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /** at most n runs are left for the final merge, which keeps a page
+     ** of each of them while next() is called; numBuff-1 if not set
+     **/
+
+    public void setFinalRuns(int n) {
+        this.finalRuns = n;
     }
 
     /** number of buffers available to this join operator **/
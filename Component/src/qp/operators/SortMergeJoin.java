@@ -2,188 +2,377 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
-import qp.utils.Block;
+import qp.utils.BloomFilter;
+import qp.utils.Condition;
+import qp.utils.Prefetcher;
 import qp.utils.Tuple;
+import qp.utils.TupleLayout;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.util.Vector;
+
+/**
+ * Both inputs are sorted on the join attribute by SortMerge and then read
+ * once, page by page, in step. The right tuples sharing a join value form
+ * a group that is kept in memory (written to a file when it takes more
+ * than the pages left to it) and joined with each left tuple of the same
+ * value: the group is marked when it is read and restored for every such
+ * tuple. The final merges of both sorts stay open during the join, so
+ * numBuff is split: each of them reads at most finalRuns(numBuff) runs,
+ * one page of each, the right input is sorted in the buffers the left
+ * merge does not hold and the group gets the rest but the output page.
+ * The left input is sorted first and the join values seen meanwhile form
+ * a Bloom filter that the scans of the right input use to drop tuples
+ * before they are sorted
+ **/
 
 public class SortMergeJoin extends Join {
     private int batchsize;  //Number of tuples per out batch
-    private int blocksize;  // number of batches per block
-    
-    private int leftindex;     // Index of the join attribute in left table
-    private int rightindex;    // Index of the join attribute in right table
-    
-    private String rfname;    // The file name where the right table is materialize
-    
+    private int groupsize;  // Number of pages of a group kept in memory
+    private int rightcapacity;  // Number of right tuples per page
+    private int prefetch;   // Number of pages of the sorted files read ahead
+
+    private TupleLayout outlayout;  // Layout of the joined tuples
+
+    private int[] leftindexes;   // Indexes of the join attributes in left table
+    private int[] rightindexes;  // Indexes of the join attributes in right table
+
     private static int filenum = 0;   // To get unique filenum for this operation
-    
-//    Batch outbatch;   // Output buffer
-//    Batch leftbatch;  // Buffer for left input stream
-//    Block leftblock;
-    
+
+    private SortMerge sortedLeft;
+    private SortMerge sortedRight;
+
+    private BloomFilter leftfilter;   // Join values of the left input
+    private boolean filterpushed;     // Whether the scans of the right input hold leftfilter
+
+    private Batch leftbatch;   // Buffer for left input stream
     private Batch rightbatch;  // Buffer for right input stream
-    private ObjectInputStream in; // File pointer to the right hand materialized file
-    
     private int lcurs;    // Cursor for left side buffer
     private int rcurs;    // Cursor for right side buffer
-    private boolean eosl;  // Whether end of stream (left table) is reached
-    private boolean eosr;  // End of stream (right table)
-    
-    private File fileLeft;
-    private File fileRight;
-    private ArrayList<File> filesRight;
-    
-    private SortMerge sortedLeft;
-    private SortMerge sortedRight;
-    
-    int numOfRightTuples;
-    
-    // next()
-    private Batch leftBatch;
-    private Batch rightBatch;
-    
-    private int rightIndex;
-    private int startOfPartition;
-    private boolean tupleEqual;
-    
+    private boolean eos;  // Whether either input is exhausted
+
+    /** The group of right tuples with the same join value **/
+    private Vector<Batch> group;    // Pages of the group in memory
+    private File groupfile;         // File holding the group when it does not fit
+    private ObjectOutputStream groupout;
+    private Tuple groupkey;         // First tuple of the group
+    private Prefetcher groupin;     // Reader of the group file during a pass
+    private int gpage;              // Next page of the group in memory
+    private Batch groupbatch;       // Page of the group being joined
+    private int gcurs;              // Cursor in groupbatch
+    private Tuple lefttuple;        // Left tuple being joined with the group
+    private boolean joining;        // Whether lefttuple matches the group
+
     public SortMergeJoin(Join jn) {
         super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        setConditions(jn.getConditions());
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = jn.getNumBuff();
+        leftTuples = jn.getLeftTuples();
     }
-    
-    
+
+
+    /** number of pages of the sorted files read ahead **/
+
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+
+    /** most runs read by the final merge of each input, a quarter of the buffers **/
+
+    public static int finalRuns(int numBuff) {
+        return Math.max(1, (numBuff - 1) / 4);
+    }
+
+    /** buffers for sorting the right input, the final merge of the left holds the others **/
+
+    public static int rightSortBuffers(int numBuff) {
+        return Math.max(3, numBuff - finalRuns(numBuff));
+    }
+
+
     /** During open finds the index of the join attributes
-     **  Materializes the right hand side into a file
-     **  Opens the connections
+     **  and sorts both inputs
      **/
-    
+
     @Override
     public boolean open() {
-    
-        // select number of tuples per batch and number of batches per block
+
+        // select number of tuples per batch
         int tuplesize = schema.getTupleSize();
         batchsize = Batch.getPageSize() / tuplesize;
-        blocksize = numBuff - 1;
-    
-        Attribute leftattr = con.getLhs();
+        outlayout = schema.getTupleLayout();
+        // one buffer for each run of the final merges and one for the output
+        int finalruns = finalRuns(numBuff);
+        groupsize = Math.max(1, numBuff - 2 * finalruns - 1);
+        rightcapacity = Math.max(1, Batch.getPageSize() / right.getSchema().getTupleSize());
+
+        leftindexes = leftIndexes();
+        rightindexes = rightIndexes();
+        bindResidual();
+
+        /** both inputs are sorted on the composite key of the equalities,
+         ** the filter holds the values of its first attribute
+         **/
+        Vector<Attribute> leftattrs = new Vector<>();
+        Vector<Attribute> rightattrs = new Vector<>();
+        for (int i = 0; i < leftindexes.length; i++) {
+            leftattrs.add(conditions.elementAt(i).getLhs());
+            rightattrs.add((Attribute) conditions.elementAt(i).getRhs());
+        }
         Attribute rightattr = (Attribute) con.getRhs();
-        leftindex = left.getSchema().indexOf(leftattr);
-        rightindex = right.getSchema().indexOf(rightattr);
-        
-        sortedLeft = new SortMerge(left, numBuff, leftindex);
-        sortedRight = new SortMerge(right, numBuff, rightindex);
-        
-        if(!sortedLeft.open() || !sortedRight.open()) {
+        sortedLeft = new SortMerge(left, leftattrs);
+        sortedRight = new SortMerge(right, rightattrs);
+        sortedLeft.setNumBuff(numBuff);
+        sortedRight.setNumBuff(rightSortBuffers(numBuff));
+        sortedLeft.setFinalRuns(finalruns);
+        sortedRight.setFinalRuns(finalruns);
+        sortedLeft.setPrefetch(prefetch);
+        sortedRight.setPrefetch(prefetch);
+        if(leftfilter == null) {
+            leftfilter = new BloomFilter(leftTuples);
+        } else {
+            leftfilter.reset();
+        }
+        sortedLeft.setKeyFilter(leftfilter);
+
+        if(!sortedLeft.open()) {
+            return false;
+        }
+        leftfilter.build();
+        if(!filterpushed) {
+            filterpushed = pushRuntimeFilter(right, rightattr, leftfilter);
+        }
+        if(!sortedRight.open()) {
             return false;
         }
-        
-        // Left and right operators are not base table, materialize them to files.
-//        fileLeft = materialize(sortedLeft, "left");
-        numOfRightTuples = 0;
-        filesRight = materialize(sortedRight, "right");
-        
-        eosl = false;
-        eosr = false;
-        
+
+        leftbatch = null;
+        rightbatch = null;
         lcurs = 0;
         rcurs = 0;
-        
-        rightIndex = 0;
-        startOfPartition = 0;
-        tupleEqual = false;
-        
+        eos = false;
+        lefttuple = null;
+        joining = false;
+        group = new Vector<>();
+        groupfile = null;
+
         return true;
     }
-    
+
+
+    /** from the sorted inputs selects the tuples satisfying join condition
+     ** And returns a page of output tuples
+     **/
+
+    @Override
     public Batch next() {
-//        Batch left = sortedLeft.next();
+        if(eos) {
+            close();
+            return null;
+        }
         Batch result = new Batch(batchsize);
-        try {
-            boolean flag = true;
-            while(flag) {
-                if(lcurs == 0) {
-                    leftBatch = sortedLeft.next();
-                    if(leftBatch == null) {
-                        return null;
+        while(!result.isFull()) {
+            if(joining) {
+                if(groupbatch != null && gcurs < groupbatch.size()) {
+                    Tuple righttuple = groupbatch.elementAt(gcurs++);
+                    if(checkResidual(lefttuple, righttuple)) {
+                        result.add(lefttuple.joinWith(righttuple, outlayout));
                     }
+                    continue;
                 }
-                
-                int rightFileIndex = rightIndex / batchsize;
-                int rightTupleIndex = rightIndex % batchsize;
-                File rightFile = filesRight.get(rightFileIndex);
-                Batch rightBatch = (Batch) (new ObjectInputStream(new FileInputStream(rightFile))).readObject();
-                Tuple rightTuple = rightBatch.elementAt(rightTupleIndex);
-                Tuple leftTuple = leftBatch.elementAt(lcurs);
-                
-                int leftOrRight = Tuple.compareTuples(leftTuple, rightTuple, leftindex, rightindex);
-                
-                if(leftOrRight < 0) {
-                    lcurs = (lcurs+1) % batchsize;
-                    if(tupleEqual) {
-                        rightIndex = startOfPartition;
-                    }
-                    tupleEqual = false;
-                } else if(leftOrRight > 0) {
-                    rightIndex++;
-                    tupleEqual = false;
-                } else // leftOrRight == 1, which means leftTuple == rightTuple
-                {
-                    if(!tupleEqual) {
-                        startOfPartition = rightIndex; // new startOfPartition
-                    }
-                    tupleEqual = true;
-                    Tuple resultTuple = leftTuple.joinWith(rightTuple);
-                    result.add(resultTuple);
-                    rightIndex++;
+                groupbatch = nextGroupPage();
+                gcurs = 0;
+                if(groupbatch != null) {
+                    continue;
+                }
+                // lefttuple is joined with the whole group
+                lefttuple = nextLeft();
+                if(lefttuple != null && Tuple.compareTuples(lefttuple, groupkey, leftindexes, rightindexes) == 0) {
+                    restoreGroup();
+                    continue;
+                }
+                joining = false;
+                clearGroup();
+                if(lefttuple == null) {
+                    eos = true;
+                    break;
                 }
-                
-                flag = !result.isFull() && ((leftBatch = sortedLeft.next()) != null) && (rightIndex < numOfRightTuples);
+                continue;
+            }
+
+            if(lefttuple == null) {
+                lefttuple = nextLeft();
+            }
+            Tuple righttuple = peekRight();
+            if(lefttuple == null || righttuple == null) {
+                eos = true;
+                break;
+            }
+            int leftOrRight = Tuple.compareTuples(lefttuple, righttuple, leftindexes, rightindexes);
+            if(leftOrRight < 0) {
+                lefttuple = nextLeft();
+            } else if(leftOrRight > 0) {
+                rcurs++;
+            } else {
+                // mark: read the group of right tuples equal to lefttuple
+                readGroup(righttuple);
+                restoreGroup();
+                joining = true;
             }
-        } catch (IOException|ClassNotFoundException e) {
-            e.printStackTrace();
         }
-        
+
         if(result.isEmpty()) {
+            close();
             return null;
         }
         return result;
     }
 
-    
-    /** from input buffers selects the tuples satisfying join condition
-     ** And returns a page of output tuples
-     **/
-    
-    /** Close the operator */
-    public boolean close() {
-        for(File file : filesRight) {
-            file.delete();
+
+    /** next left tuple, null at the end of the left input **/
+
+    private Tuple nextLeft() {
+        while(leftbatch == null || lcurs == leftbatch.size()) {
+            leftbatch = sortedLeft.next();
+            lcurs = 0;
+            if(leftbatch == null) {
+                return null;
+            }
         }
-        return true;
+        return leftbatch.elementAt(lcurs++);
     }
-    
-    public ArrayList<File> materialize(Operator op, String base) {
-        int num = 0;
-        ArrayList<File> results = new ArrayList<>();
+
+    /** right tuple under the cursor, null at the end of the right input **/
+
+    private Tuple peekRight() {
+        while(rightbatch == null || rcurs == rightbatch.size()) {
+            rightbatch = sortedRight.next();
+            rcurs = 0;
+            if(rightbatch == null) {
+                return null;
+            }
+        }
+        return rightbatch.elementAt(rcurs);
+    }
+
+
+    /** reads the right tuples with the join value of first into the group **/
+
+    private void readGroup(Tuple first) {
+        groupkey = first;
+        Batch page = new Batch(rightcapacity);
+        Tuple righttuple = first;
+        while(righttuple != null && Tuple.compareTuples(righttuple, first, rightindexes) == 0) {
+            page.add(righttuple);
+            if(page.isFull()) {
+                addGroupPage(page);
+                page = new Batch(rightcapacity);
+            }
+            rcurs++;
+            righttuple = peekRight();
+        }
+        if(!page.isEmpty()) {
+            addGroupPage(page);
+        }
+        if(groupout != null) {
+            try {
+                groupout.close();
+            } catch (IOException io) {
+                System.out.println("SortMergeJoin:writing the temporary file error");
+                System.exit(1);
+            }
+            groupout = null;
+        }
+    }
+
+    /** the group goes to a file once it has more than groupsize pages **/
+
+    private void addGroupPage(Batch page) {
         try {
-            Batch batch;
-            while((batch = op.next()) != null) {
-                File result = new File("base-" + base + "-" + num);
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(result));
-                out.writeObject(batch);
-                out.close();
-                results.add(result);
-                numOfRightTuples += batch.size();
+            if(groupout == null && group.size() < groupsize) {
+                group.add(page);
+                return;
+            }
+            if(groupout == null) {
+                filenum++;
+                groupfile = new File("SMJtemp-" + filenum);
+                groupout = new ObjectOutputStream(new FileOutputStream(groupfile));
+                for(int i = 0; i < group.size(); i++) {
+                    groupout.writeObject(group.get(i));
+                }
+                group.clear();
+            }
+            groupout.writeObject(page);
+            groupout.reset();
+        } catch (IOException io) {
+            System.out.println("SortMergeJoin:writing the temporary file error");
+            System.exit(1);
+        }
+    }
+
+    /** restore: start a new pass over the group **/
+
+    private void restoreGroup() {
+        gpage = 0;
+        groupbatch = null;
+        gcurs = 0;
+        if(groupin != null) {
+            groupin.close();
+            groupin = null;
+        }
+        if(groupfile != null) {
+            try {
+                groupin = Prefetcher.ofFile(groupfile.getPath(), prefetch);
+            } catch (IOException io) {
+                System.out.println("SortMergeJoin:error in reading the temporary file");
+                System.exit(1);
             }
-            return results;
-        } catch (IOException e) {
-            e.printStackTrace();
+        }
+    }
+
+    private Batch nextGroupPage() {
+        if(gpage < group.size()) {
+            return group.get(gpage++);
+        }
+        if(groupin != null) {
+            return groupin.next();
         }
         return null;
     }
-    
+
+    private void clearGroup() {
+        if(groupin != null) {
+            groupin.close();
+            groupin = null;
+        }
+        if(groupfile != null) {
+            groupfile.delete();
+            groupfile = null;
+        }
+        group.clear();
+        groupkey = null;
+        groupbatch = null;
+    }
+
+
+    /** Close the operator */
+    @Override
+    public boolean close() {
+        if(group != null) {
+            clearGroup();
+        }
+        if(sortedLeft != null) {
+            sortedLeft.close();
+            sortedLeft = null;
+        }
+        if(sortedRight != null) {
+            sortedRight.close();
+            sortedRight = null;
+        }
+        return true;
+    }
+
 }
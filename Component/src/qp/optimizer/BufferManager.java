@@ -4,6 +4,7 @@ all the join operators
 
 package qp.optimizer;
 
+import qp.utils.BufferPool;
 
 public class BufferManager{
 
@@ -12,11 +13,14 @@ public class BufferManager{
 
     static int buffPerJoin;
 
+    static int prefetchDepth = 2; // pages each reader keeps read ahead, 0 for none
+
 
     public BufferManager(int numBuffer, int numJoin){
 	    this.numBuffer = numBuffer;
 	    this.numJoin = numJoin;
 	    buffPerJoin = numBuffer/numJoin;
+	    BufferPool.setNumFrames(numBuffer);
     }
 
     public static int getBuffersPerJoin(){
@@ -26,4 +30,15 @@ public class BufferManager{
         return numBuffer;
     }
 
+    /** number of pages the scans and the temporary file readers
+     ** read ahead in the background, these pages are held in
+     ** memory besides the buffers given to the operators
+     **/
+    public static void setPrefetchDepth(int depth){
+        prefetchDepth = depth;
+    }
+    public static int getPrefetchDepth(){
+        return prefetchDepth;
+    }
+
 }
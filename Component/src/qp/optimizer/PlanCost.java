@@ -9,6 +9,7 @@ import qp.operators.*;
 import qp.utils.*;
 
 import java.util.Hashtable;
+import java.util.Vector;
 import java.util.StringTokenizer;
 import java.util.Enumeration;
 import java.io.*;
@@ -31,11 +32,28 @@ public class PlanCost {
      ** number of distinct values of that attribute
      **/
 
-    Hashtable ht;
+    Hashtable<Attribute, Integer> ht;
+
+
+    /** Hashtable stores mapping from Attribute to the most frequent
+     ** values of that attribute (value as in the query to number of
+     ** tuples), for the attributes whose .stat file lists them
+     **/
+
+    Hashtable<Attribute, Hashtable<Object, Integer>> freq;
+
+
+    /** Number of pages of each table scanned, for the attributes
+     ** the Project reads from the tables by row ids
+     **/
+
+    Hashtable<String, Integer> tablepages;
 
 
     public PlanCost() {
-        ht = new Hashtable();
+        ht = new Hashtable<>();
+        freq = new Hashtable<>();
+        tablepages = new Hashtable<>();
         cost = 0;
     }
 
@@ -77,6 +95,8 @@ public class PlanCost {
             return getStatistics((Project) node);
         } else if (node.getOpType() == OpType.SCAN) {
             return getStatistics((Scan) node);
+        } else if (node.getOpType() == OpType.INDEXSCAN) {
+            return getStatistics((IndexScan) node);
         } else if (node.getOpType() == OpType.DISTINCT) {
             return getStatistics((Distinct) node);
         } else if (node.getOpType() == OpType.GROUP_BY) {
@@ -87,11 +107,41 @@ public class PlanCost {
 
 
     /** projection will not change any statistics
-     ** No cost involved as done on the fly
+     ** No cost involved as done on the fly, except for reading the
+     ** attributes not in the base from their tables by row ids
      **/
 
     protected int getStatistics(Project node) {
-        return calculateCost(node.getBase());
+        int numtuples = calculateCost(node.getBase());
+        Schema baseschema = node.getBase().getSchema();
+        Vector<?> attrs = node.getProjAttr();
+        Vector<String> fetched = new Vector<>();  // Tables read by row ids
+        for (int i = 0; i < attrs.size(); i++) {
+            String tabname = ((Attribute) attrs.elementAt(i)).getTabName();
+            if (baseschema.contains((Attribute) attrs.elementAt(i)) || fetched.contains(tabname)) {
+                continue;
+            }
+            fetched.add(tabname);
+            Integer numpages = tablepages.get(tabname);
+            if (numpages != null) {
+                cost = cost + fetchedPages(numpages.intValue(), numtuples);
+            }
+        }
+        return numtuples;
+    }
+
+    /** Number of pages read to fetch the records of numtuples row ids of a
+     ** table of numpages pages. When the table fits in the buffers it is
+     ** the expected number of distinct pages holding them, otherwise each
+     ** record is taken to need a read
+     **/
+
+    protected int fetchedPages(int numpages, int numtuples) {
+        if (numpages > BufferManager.getBuffers()) {
+            return numtuples;
+        }
+        double missed = Math.pow(1.0 - 1.0 / numpages, numtuples);
+        return (int) Math.ceil(numpages * (1.0 - missed));
     }
 
     /** projection will not change any statistics
@@ -155,16 +205,48 @@ public class PlanCost {
         leftjoinAttr = leftschema.getAttribute(leftattrind);
         rightjoinAttr = rightschema.getAttribute(rightattrind);
         /** number of distinct values of left and right join attribute **/
-        int leftattrdistn = ((Integer) ht.get(leftjoinAttr)).intValue();
-        int rightattrdistn = ((Integer) ht.get(rightjoinAttr)).intValue();
+        int leftattrdistn = ht.get(leftjoinAttr).intValue();
+        int rightattrdistn = ht.get(rightjoinAttr).intValue();
 
-        int outtuples = (int) Math.ceil(((double) lefttuples * righttuples) / (double) Math.max(leftattrdistn, rightattrdistn));
+        int outtuples;
+        int first;
+        if (node.isEquiJoin()) {
+            outtuples = joinedTuples(node.getSchema(), leftjoinAttr, rightjoinAttr, lefttuples, righttuples, leftattrdistn, rightattrdistn);
+
+            int mindistinct = Math.min(leftattrdistn, rightattrdistn);
+            ht.put(leftjoinAttr, new Integer(mindistinct));
+            //TODO: BUG
+            //ht.put(leftjoinAttr,new Integer(mindistinct));
+            ht.put(rightjoinAttr, new Integer(mindistinct));
+            first = 1;
+        } else {
+            outtuples = (int) Math.min(Integer.MAX_VALUE, (long) lefttuples * righttuples);
+            first = 0;
+        }
 
-        int mindistinct = Math.min(leftattrdistn, rightattrdistn);
-        ht.put(leftjoinAttr, new Integer(mindistinct));
-        //TODO: BUG
-        //ht.put(leftjoinAttr,new Integer(mindistinct));
-        ht.put(rightjoinAttr, new Integer(mindistinct));
+        /** the other conditions are taken as independent of the first
+         ** one, an equality keeps 1/max(distinct) of the tuples and an
+         ** inequality half of them, as for the selections
+         **/
+        Vector<Condition> conditions = node.getConditions();
+        for (int i = first; i < conditions.size(); i++) {
+            Condition cn = conditions.elementAt(i);
+            Attribute leftattr = leftschema.getAttribute(leftschema.indexOf(cn.getLhs()));
+            Attribute rightattr = rightschema.getAttribute(rightschema.indexOf((Attribute) cn.getRhs()));
+            int leftdistn = ht.get(leftattr).intValue();
+            int rightdistn = ht.get(rightattr).intValue();
+            double equalfraction = 1 / (double) Math.max(1, Math.max(leftdistn, rightdistn));
+            if (cn.getExprType() == Condition.EQUAL) {
+                outtuples = (int) Math.ceil(outtuples * equalfraction);
+                int mindistn = Math.min(leftdistn, rightdistn);
+                ht.put(leftattr, Integer.valueOf(mindistn));
+                ht.put(rightattr, Integer.valueOf(mindistn));
+            } else if (cn.getExprType() == Condition.NOTEQUAL) {
+                outtuples = (int) Math.ceil(outtuples * (1 - equalfraction));
+            } else {
+                outtuples = (int) Math.ceil(0.5 * outtuples);
+            }
+        }
 
 
         /** now calculate the cost of the operation**/
@@ -177,6 +259,14 @@ public class PlanCost {
 
         //System.out.println("PlanCost: jointype="+joinType);
 
+        /** only the nested loops and the range join compare
+         ** the tuples on other conditions than equalities
+         **/
+        if (!node.isEquiJoin() && joinType != JoinType.NESTEDJOIN && joinType != JoinType.RANGEJOIN) {
+            isFeasible = false;
+            return Integer.MAX_VALUE;
+        }
+
         switch (joinType) {
             case JoinType.NESTEDJOIN:
                 //TODO: BUG
@@ -186,7 +276,7 @@ public class PlanCost {
             case JoinType.BLOCKNESTED:
                 //TODO: BUG
                 //joincost = 0;
-                joincost = calculateBNLJCost(leftpages, rightpages, numbuff);
+                joincost = calculateBNLJCost(leftpages, rightpages, numbuff, rescannedPages(node.getRight()));
                 break;
             case JoinType.SORTMERGE:
                 //TODO: BUG
@@ -195,11 +285,21 @@ public class PlanCost {
                 break;
             case JoinType.HASHJOIN:
                 //TODO: BUG
-                joincost = calculateHashJoinCost(leftpages, rightpages);
+                joincost = calculateHashJoinCost(leftpages, rightpages, numbuff);
+                break;
+            case JoinType.HYBRIDHASH:
+                joincost = calculateHybridHashJoinCost(leftpages, rightpages, numbuff);
                 break;
             case JoinType.INDEXNESTED:
-                //Assume Hash index and clustered index
-                joincost = calculateINLJCost(leftpages, leftcapacity);
+                joincost = calculateINLJCost(IndexNestedJoin.getIndex(node), leftpages, lefttuples,
+                        righttuples, rightattrdistn);
+                if (isFeasible) {
+                    // the right table is searched through the index instead of being scanned
+                    joincost = joincost - rightpages;
+                }
+                break;
+            case JoinType.RANGEJOIN:
+                joincost = calculateRangeJoinCost(RangeJoin.getSweepCondition(node), leftpages, rightpages, numbuff);
                 break;
             default:
                 joincost = 0;
@@ -221,29 +321,197 @@ public class PlanCost {
         return outtuples;
     }
 
+    /** Number of tuples of the equi-join. The frequent values of the join
+     ** attributes are matched one by one, a value frequent on one side only
+     ** is taken to have the average number of tuples on the other side.
+     ** The other tuples are spread uniformly over the other values. The
+     ** frequent values of the join attributes in the result are the products
+     ** of their counts, the other attributes are taken as uniform afterwards
+     **/
+
+    protected int joinedTuples(Schema schema, Attribute leftattr, Attribute rightattr, int lefttuples, int righttuples,
+                               int leftdistinct, int rightdistinct) {
+        Hashtable<Object, Integer> leftfreq = freq.get(leftattr);
+        Hashtable<Object, Integer> rightfreq = freq.get(rightattr);
+        if (leftfreq == null && rightfreq == null) {
+            return (int) Math.ceil(((double) lefttuples * righttuples) / (double) Math.max(leftdistinct, rightdistinct));
+        }
+        if (leftfreq == null)
+            leftfreq = new Hashtable<>();
+        if (rightfreq == null)
+            rightfreq = new Hashtable<>();
+        double leftavg = averageCount(leftfreq, lefttuples, leftdistinct);
+        double rightavg = averageCount(rightfreq, righttuples, rightdistinct);
+
+        Hashtable<Object, Integer> values = new Hashtable<>();
+        values.putAll(leftfreq);
+        values.putAll(rightfreq);
+        Hashtable<Object, Integer> joined = new Hashtable<>();
+        double outtuples = 0;
+        double leftrest = lefttuples;
+        double rightrest = righttuples;
+        Enumeration<Object> e = values.keys();
+        while (e.hasMoreElements()) {
+            Object value = e.nextElement();
+            double leftcount = leftfreq.containsKey(value) ? leftfreq.get(value).intValue() : leftavg;
+            double rightcount = rightfreq.containsKey(value) ? rightfreq.get(value).intValue() : rightavg;
+            outtuples += leftcount * rightcount;
+            leftrest -= leftcount;
+            rightrest -= rightcount;
+            joined.put(value, Integer.valueOf((int) Math.ceil(leftcount * rightcount)));
+        }
+        int restdistinct = Math.max(1, Math.max(leftdistinct, rightdistinct) - values.size());
+        outtuples += Math.max(0, leftrest) * Math.max(0, rightrest) / restdistinct;
+
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            freq.remove(schema.getAttribute(i));
+        }
+        freq.put(leftattr, joined);
+        freq.put(rightattr, joined);
+        return (int) Math.ceil(outtuples);
+    }
+
+    /** average number of tuples of the values that are not frequent **/
+
+    protected double averageCount(Hashtable<Object, Integer> frequent, int numtuples, int numdistinct) {
+        int frequenttuples = 0;
+        for (Enumeration<Integer> e = frequent.elements(); e.hasMoreElements(); ) {
+            frequenttuples += e.nextElement().intValue();
+        }
+        int restdistinct = Math.max(1, numdistinct - frequent.size());
+        return Math.max(0, numtuples - frequenttuples) / (double) restdistinct;
+    }
+
+
     protected int calculateNLJCost(int leftpages, int rightpages) {
         return leftpages + leftpages * rightpages;
     }
 
-    protected int calculateBNLJCost(int leftpages, int rightpages, int numbuff) {
-        return leftpages + (int) Math.ceil(leftpages / (double) (numbuff - 2)) * rightpages;
+    /** An intermediate right input is written once and the file is read
+     ** for every block of the left input. A base table (tablepages >= 0)
+     ** is scanned again instead, the first scan is the cost of the Scan
+     **/
+    protected int calculateBNLJCost(int leftpages, int rightpages, int numbuff, int tablepages) {
+        int numblocks = (int) Math.ceil(leftpages / (double) (numbuff - 2));
+        if (tablepages >= 0) {
+            return leftpages + Math.max(0, numblocks - 1) * tablepages;
+        }
+        return leftpages + rightpages + numblocks * rightpages;
+    }
+
+    /** pages read by each scan of the input if it is a base table, -1 otherwise **/
+    protected int rescannedPages(Operator node) {
+        if (node.getOpType() != OpType.SCAN) {
+            return -1;
+        }
+        return tablepages.get(((Scan) node).getTabName()).intValue();
     }
 
+    /** the final merges of both sorts are read during the join, each of
+     ** finalRuns runs, and the right input is sorted in the buffers the
+     ** final merge of the left input does not hold
+     **/
     protected int calculateSMJCost(int leftpages, int rightpages, int numbuff) {
-        return calculateExternalSortCost(leftpages, numbuff) + calculateExternalSortCost(rightpages, numbuff)
+        if (numbuff < 3) {
+            isFeasible = false;
+            return Integer.MAX_VALUE;
+        }
+        int finalruns = SortMergeJoin.finalRuns(numbuff);
+        return calculateExternalSortCost(leftpages, numbuff, finalruns)
+                + calculateExternalSortCost(rightpages, SortMergeJoin.rightSortBuffers(numbuff), finalruns)
                 + leftpages + rightpages;
     }
 
+    /** a sort whose final merge reads up to numbuff-1 runs **/
     protected int calculateExternalSortCost(int pages, int numbuff) {
-        return 2 * pages * (1 + (int) Math.ceil(Math.log(Math.ceil(pages / (double) numbuff)) / Math.log(numbuff - 1)));
+        return calculateExternalSortCost(pages, numbuff, numbuff - 1);
     }
 
-    protected int calculateHashJoinCost(int leftpages, int rightpages) {
-        return 3 * (leftpages + rightpages);
+    /** replacement selection keeps numbuff-2 pages in memory, next to the
+     ** input and the output page, and makes runs of twice that on average,
+     ** which are merged numbuff-1 at a time until at most finalruns are
+     ** left. The last merge is not written but read by the operator using
+     ** the sort, which counts the reading of the sorted pages
+     **/
+    protected int calculateExternalSortCost(int pages, int numbuff, int finalruns) {
+        double numruns = Math.max(1, Math.ceil(pages / (2.0 * (numbuff - 2))));
+        int passes = 0;
+        if (numruns > finalruns) {
+            passes = (int) Math.ceil(Math.log(numruns / finalruns) / Math.log(numbuff - 1));
+        }
+        return 2 * pages * (1 + passes);
     }
 
-    protected int calculateINLJCost(int leftpages, int leftcapacity) {
-        return leftpages + (int) ((leftpages * leftcapacity) * (1.2 + 1));
+    /** Each partitioning pass reads and writes both inputs, the smaller
+     ** input is partitioned until its partitions fit in numbuff-2 pages,
+     ** then both are read once more to join the partitions
+     **/
+    protected int calculateHashJoinCost(int leftpages, int rightpages, int numbuff) {
+        if (numbuff < 3) {
+            isFeasible = false;
+            return Integer.MAX_VALUE;
+        }
+        int passes = 1;
+        double partpages = Math.min(leftpages, rightpages) / (double) (numbuff - 1);
+        while (partpages > numbuff - 2) {
+            partpages = partpages / (numbuff - 1);
+            passes++;
+        }
+        return 2 * passes * (leftpages + rightpages) + leftpages + rightpages;
+    }
+
+    /** The left input is the one kept in memory, numbuff-2 buffers hold the
+     ** resident partitions and the output buffers of the partitions written
+     ** to disk; only the tuples of the written partitions pay for the passes
+     ** of calculateHashJoinCost
+     **/
+    protected int calculateHybridHashJoinCost(int leftpages, int rightpages, int numbuff) {
+        if (numbuff < 4) {
+            return calculateHashJoinCost(leftpages, rightpages, numbuff);
+        }
+        int memory = numbuff - 2;
+        if (leftpages <= memory) {
+            return leftpages + rightpages;
+        }
+        int numparts = Math.max(2, memory / 2);
+        int spilledparts = (int) Math.ceil(numparts * (1 - memory / (double) leftpages));
+        double resident = Math.max(0, (memory - spilledparts) / (double) leftpages);
+        int spilledleft = (int) Math.ceil((1 - resident) * leftpages);
+        int spilledright = (int) Math.ceil((1 - resident) * rightpages);
+        int passes = 1;
+        double partpages = spilledleft / (double) numparts;
+        while (partpages > memory) {
+            partpages = partpages / (numbuff - 1);
+            passes++;
+        }
+        return leftpages + rightpages + 2 * passes * (spilledleft + spilledright);
+    }
+
+    /** Both inputs are sorted, the sorted left input is written once more
+     ** and read by the ranges of the right tuples, mostly from the
+     ** BufferPool as the ranges of consecutive tuples overlap; not
+     ** feasible without a range condition or with fewer than 3 buffers
+     **/
+    protected int calculateRangeJoinCost(Condition sweep, int leftpages, int rightpages, int numbuff) {
+        if (sweep == null || numbuff < 3) {
+            isFeasible = false;
+            return Integer.MAX_VALUE;
+        }
+        return calculateExternalSortCost(leftpages, numbuff)
+                + calculateExternalSortCost(rightpages, numbuff, RangeJoin.finalRuns(numbuff))
+                + 2 * leftpages + rightpages;
+    }
+
+    /** each left tuple descends the index and reads one page per matching
+     ** right tuple (the index is unclustered); not feasible without an index
+     **/
+    protected int calculateINLJCost(BTreeIndex index, int leftpages, int lefttuples, int righttuples, int rightdistinct) {
+        if (index == null) {
+            isFeasible = false;
+            return Integer.MAX_VALUE;
+        }
+        int matches = (int) Math.ceil(righttuples / (double) Math.max(1, rightdistinct));
+        return leftpages + lefttuples * (index.getHeight() + matches);
     }
 
     /** Find number of incoming tuples, Using the selectivity find # of output tuples
@@ -259,50 +527,94 @@ public class PlanCost {
             return Integer.MAX_VALUE;
         }
 
-        Condition con = node.getCondition();
         Schema schema = node.getSchema();
+        Vector<Condition> conditions = node.getConditions();
+        int outtuples = intuples;
 
-        Attribute attr = con.getLhs();
+        /** The conditions are applied one after the other, each
+         ** on the result of the previous ones
+         **/
+        for (int c = 0; c < conditions.size(); c++) {
+            Condition con = conditions.elementAt(c);
+            intuples = outtuples;
 
-        int index = schema.indexOf(attr);
-        Attribute fullattr = schema.getAttribute(index);
+            Attribute attr = con.getLhs();
 
-        int exprtype = con.getExprType();
+            int index = schema.indexOf(attr);
+            Attribute fullattr = schema.getAttribute(index);
+
+            /** calculate the number of tuples in result **/
+            outtuples = selectedTuples(con, fullattr, intuples);
+
+            scaleStatistics(schema, outtuples, intuples);
+        }
+//        System.out.print("Select Condition: ");
+//        Debug.PPrint(node.getCondition());
+//        System.out.println(" - outtuples = " + outtuples);
+        return outtuples;
+    }
+
+
+    /** Number of the intuples satisfying the selection condition on fullattr,
+     ** the count of a frequent value is used when the value is compared for
+     ** equality; the other values share the remaining tuples uniformly
+     **/
 
+    protected int selectedTuples(Condition con, Attribute fullattr, int intuples) {
+        int exprtype = con.getExprType();
 
         /** Get number of distinct values of selection attributes **/
 
-        Integer temp = (Integer) ht.get(fullattr);
+        Integer temp = ht.get(fullattr);
         int numdistinct = temp.intValue();
         //int numdistinct = ((Integer)ht.get(fullattr)).intValue();
-        int outtuples;
 
-        /** calculate the number of tuples in result **/
-        if (exprtype == Condition.EQUAL) {
-            outtuples = (int) Math.ceil((double) intuples / (double) numdistinct);
-        } else if (exprtype == Condition.NOTEQUAL) {
-            outtuples = (int) Math.ceil(intuples - ((double) intuples / (double) numdistinct));
-        } else {
-            // TODO: Over Simplification?
-            outtuples = (int) Math.ceil(0.5 * intuples);
+        if (exprtype == Condition.EQUAL || exprtype == Condition.NOTEQUAL) {
+            double equaltuples = (double) intuples / (double) numdistinct;
+            Hashtable<Object, Integer> frequent = freq.get(fullattr);
+            if (frequent != null) {
+                Integer count = frequent.get(con.getRhs());
+                if (count != null) {
+                    equaltuples = Math.min(intuples, count.intValue());
+                } else {
+                    equaltuples = averageCount(frequent, intuples, numdistinct);
+                }
+            }
+            if (exprtype == Condition.EQUAL) {
+                return (int) Math.ceil(equaltuples);
+            }
+            return (int) Math.ceil(intuples - equaltuples);
         }
+        // TODO: Over Simplification?
+        return (int) Math.ceil(0.5 * intuples);
+    }
 
-        /** Modify the number of distinct values of each attribute
-         ** Assuming the values are distributed uniformly along entire
-         ** relation
-         **/
+    /** Modify the number of distinct values of each attribute
+     ** Assuming the values are distributed uniformly along entire
+     ** relation; the counts of the frequent values shrink alike
+     **/
+
+    protected void scaleStatistics(Schema schema, int outtuples, int intuples) {
+        double factor = (double) outtuples / (double) Math.max(1, intuples);
         for (int i = 0; i < schema.getNumCols(); i++) {
             Attribute attri = schema.getAttribute(i);
-            int oldvalue = ((Integer) ht.get(attri)).intValue();
-            int newvalue = (int) Math.ceil(((double) outtuples / (double) intuples) * oldvalue);
+            int oldvalue = ht.get(attri).intValue();
+            int newvalue = (int) Math.ceil(factor * oldvalue);
             //TODO: BUG
             //ht.put(attri, new Integer(outtuples));
             ht.put(attri, new Integer(newvalue));
+
+            Hashtable<Object, Integer> frequent = freq.get(attri);
+            if (frequent != null) {
+                Hashtable<Object, Integer> scaled = new Hashtable<>();
+                for (Enumeration<Object> e = frequent.keys(); e.hasMoreElements(); ) {
+                    Object value = e.nextElement();
+                    int count = frequent.get(value).intValue();
+                    scaled.put(value, Integer.valueOf((int) Math.ceil(factor * count)));
+                }
+                freq.put(attri, scaled);
+            }
         }
-//        System.out.print("Select Condition: ");
-//        Debug.PPrint(node.getCondition());
-//        System.out.println(" - outtuples = " + outtuples);
-        return outtuples;
     }
 
 
@@ -313,9 +625,72 @@ public class PlanCost {
      **/
 
     protected int getStatistics(Scan node) {
-        String tablename = node.getTabName();
-        String filename = tablename + ".stat";
+        /** the whole records are read even if some columns are left out **/
+        Schema schema = node.getTableSchema();
+        int numtuples = readStatistics(node.getTabName(), schema);
+        addRowIdStatistics(node.getSchema(), numtuples);
+
+        /** number of tuples per page**/
+
+        int tuplesize = schema.getTupleSize();
+        int pagesize = Batch.getPageSize() / tuplesize;
+        //Batch.capacity();
+        int numpages = (int) Math.ceil((double) numtuples / (double) pagesize);
+//        System.out.print("Table: " + node.getTabName());
+//        System.out.println(" - scancost: " + numpages);
+        cost = cost + numpages;
+        tablepages.put(node.getTabName(), Integer.valueOf(numpages));
+
+        //System.out.println("Scan: tablename="+tablename+"pres cost="+numpages+"total cost="+cost);
+        return numtuples;
+    }
+
+    /** every record has its own row id **/
+
+    protected void addRowIdStatistics(Schema schema, int numtuples) {
+        for (int i = 0; i < schema.getNumCols(); i++) {
+            if (TableFile.isRowId(schema.getAttribute(i))) {
+                ht.put(schema.getAttribute(i), Integer.valueOf(numtuples));
+            }
+        }
+    }
+
+
+    /** The index is descended once and then one page is read for each
+     ** record in the range, as the records are not stored in the order of
+     ** the index. The number of records is estimated as for a Select
+     **/
+
+    protected int getStatistics(IndexScan node) {
         Schema schema = node.getSchema();
+        int intuples = readStatistics(node.getTabName(), node.getTableSchema());
+        addRowIdStatistics(schema, intuples);
+        int tuplesize = node.getTableSchema().getTupleSize();
+        int numpages = (int) Math.ceil((double) intuples / (double) (Batch.getPageSize() / tuplesize));
+        tablepages.put(node.getTabName(), Integer.valueOf(numpages));
+        Condition con = node.getCondition();
+        BTreeIndex index = IndexScan.getIndex(node.getTabName(), con);
+        if (index == null) {
+            isFeasible = false;
+            return Integer.MAX_VALUE;
+        }
+
+        Attribute fullattr = schema.getAttribute(schema.indexOf(con.getLhs()));
+        int outtuples = selectedTuples(con, fullattr, intuples);
+        scaleStatistics(schema, outtuples, intuples);
+        cost = cost + index.getHeight() + outtuples;
+        return outtuples;
+    }
+
+
+    /** reads the number of tuples and the number of distinct
+     ** values of each attribute of the table, returns the former.
+     ** Any following line <colname> <value> <count> ... lists the
+     ** most frequent values of an attribute
+     **/
+
+    protected int readStatistics(String tablename, Schema schema) {
+        String filename = tablename + ".stat";
         int numAttr = schema.getNumCols();
         BufferedReader in = null;
         try {
@@ -363,24 +738,35 @@ public class PlanCost {
             Integer distinctValues = Integer.valueOf(temp);
             ht.put(attr, distinctValues);
         }
-        /** number of tuples per page**/
 
-        int tuplesize = schema.getTupleSize();
-        int pagesize = Batch.getPageSize() / tuplesize;
-        //Batch.capacity();
-        int numpages = (int) Math.ceil((double) numtuples / (double) pagesize);
-//        System.out.print("Table: " + node.getTabName());
-//        System.out.println(" - scancost: " + numpages);
-        cost = cost + numpages;
+        try {
+            while ((line = in.readLine()) != null) {
+                tokenizer = new StringTokenizer(line);
+                if (tokenizer.countTokens() == 0) {
+                    continue;
+                }
+                int index = schema.indexOf(new Attribute(tablename, tokenizer.nextToken()));
+                if (index == -1 || tokenizer.countTokens() % 2 != 0) {
+                    System.out.println("incorrect format of statastics file " + filename);
+                    System.exit(1);
+                }
+                Hashtable<Object, Integer> frequent = new Hashtable<>();
+                while (tokenizer.hasMoreTokens()) {
+                    String value = tokenizer.nextToken();
+                    frequent.put(value, Integer.valueOf(tokenizer.nextToken()));
+                }
+                freq.put(schema.getAttribute(index), frequent);
+            }
+        } catch (IOException io) {
+            System.out.println("error in reading frequent values of " + filename);
+            System.exit(1);
+        }
         try {
             in.close();
         } catch (IOException io) {
             System.out.println("error in closing the file " + filename);
             System.exit(1);
         }
-
-
-        //System.out.println("Scan: tablename="+tablename+"pres cost="+numpages+"total cost="+cost);
         return numtuples;
     }
 
@@ -22,13 +22,24 @@ public class RandomInitialPlan {
     Vector fromlist;
     Vector selectionlist;     //List of select conditons
     Vector joinlist;          //List of join conditions
+    Vector<Vector<Condition>> joingroups;        //Join conditions grouped by the pair of tables, one join each
     Vector groupbylist;
     int numJoin;    // Number of joins in this query
     boolean isDistinct = false;
     
     Hashtable tab_op_hash;          //table name to the Operator
+    Hashtable<String, Schema> tab_schema_hash;      //table name to the schema of its records
     Operator root; // root of the query plan tree
     int numBuff;
+
+    /** In late materialization the scans of a query with joins return
+     ** only the attributes used by the selections, joins and grouping,
+     ** and the row ids of the records when the projected attributes
+     ** left out are wider than a row id; the Project reads these
+     ** attributes of the result tuples from the tables
+     **/
+
+    static boolean lateMaterialization = true;
     
     public RandomInitialPlan(SQLQuery sqlquery) {
         this.sqlquery = sqlquery;
@@ -36,11 +47,21 @@ public class RandomInitialPlan {
         fromlist = (Vector) sqlquery.getFromList();
         selectionlist = sqlquery.getSelectionList();
         joinlist = sqlquery.getJoinList();
+        joingroups = sqlquery.getJoinGroups();
         groupbylist = sqlquery.getGroupByList();
-        numJoin = joinlist.size();
+        numJoin = joingroups.size();
         isDistinct = sqlquery.isDistinct();
     }
     
+    public static void setLateMaterialization(boolean late) {
+        lateMaterialization = late;
+    }
+
+    public static boolean isLateMaterialization() {
+        return lateMaterialization;
+    }
+
+
     /** number of join conditions **/
     
     public int getNumJoins() {
@@ -53,8 +74,13 @@ public class RandomInitialPlan {
     public Operator prepareInitialPlan() {
         
         tab_op_hash = new Hashtable();
+        tab_schema_hash = new Hashtable<>();
         
         createScanOp();
+        createIndexScanOp();
+        if (lateMaterialization && numJoin != 0) {
+            narrowScanOp();
+        }
         createSelectOp();
         if (numJoin != 0) {
             createJoinOp();
@@ -90,6 +116,7 @@ public class RandomInitialPlan {
                 ObjectInputStream _if = new ObjectInputStream(new FileInputStream(filename));
                 Schema schm = (Schema) _if.readObject();
                 op1.setSchema(schm);
+                tab_schema_hash.put(tabname, schm);
                 _if.close();
             } catch (Exception e) {
                 System.err.println("RandomInitialPlan:Error reading Schema of the table" + filename);
@@ -111,13 +138,127 @@ public class RandomInitialPlan {
     }
     
     
+    /** Replace the Scan of a table by an IndexScan serving one of the
+     ** selection conditions on the table, if there is an index on its
+     ** attribute and reading the records through it costs less
+     **/
+    
+    public void createIndexScanOp() {
+        for (int j = 0; j < selectionlist.size(); j++) {
+            Condition cn = (Condition) selectionlist.elementAt(j);
+            String tabname = cn.getLhs().getTabName();
+            if (!IndexScan.isUsable(tabname, cn)) {
+                continue;
+            }
+            Operator tempop = (Operator) tab_op_hash.get(tabname);
+            IndexScan op1 = new IndexScan(tabname, cn, OpType.INDEXSCAN);
+            op1.setSchema(tempop.getSchema());
+            /** the cheapest of the scans found so far is kept **/
+            if (new PlanCost().getCost(op1) < new PlanCost().getCost(tempop)) {
+                modifyHashtable(tempop, op1);
+            }
+        }
+    }
+    
+    
+    /** Leave the attributes of each table in binary format not used
+     ** below the projection out of its scan, see lateMaterialization
+     **/
+    
+    public void narrowScanOp() {
+        if (projectlist == null || projectlist.isEmpty()) {
+            return;  // all the attributes are in the result
+        }
+        for (int i = 0; i < fromlist.size(); i++) {
+            String tabname = (String) fromlist.elementAt(i);
+            if (!TableFile.exists(tabname)) {
+                continue;
+            }
+            Schema tableschema = tab_schema_hash.get(tabname);
+            
+            /** attributes of the table needed below the projection **/
+            Vector<Attribute> needed = new Vector<>();
+            for (int j = 0; j < selectionlist.size(); j++) {
+                addAttributes(needed, tabname, (Condition) selectionlist.elementAt(j));
+            }
+            for (int j = 0; j < joinlist.size(); j++) {
+                addAttributes(needed, tabname, (Condition) joinlist.elementAt(j));
+            }
+            addAttributes(needed, tabname, groupbylist);
+            if (isDistinct) {
+                addAttributes(needed, tabname, projectlist);
+            }
+            
+            /** projected attributes that can be read by row ids **/
+            Vector<Attribute> late = new Vector<>();
+            for (int j = 0; j < projectlist.size(); j++) {
+                Attribute attr = (Attribute) projectlist.elementAt(j);
+                if (attr.getTabName().equals(tabname) && !containsAttribute(needed, attr)
+                        && !containsAttribute(late, attr)) {
+                    late.add(attr);
+                }
+            }
+            int latesize = 0;
+            for (int j = 0; j < late.size(); j++) {
+                Attribute attr = late.elementAt(j);
+                latesize = latesize + tableschema.getAttribute(tableschema.indexOf(attr)).getAttrSize();
+            }
+            boolean rowids = latesize > TableFile.ROWID_SIZE;
+            if (!rowids) {
+                needed.addAll(late);
+            }
+            if (needed.size() == tableschema.getNumCols() || (needed.isEmpty() && !rowids)) {
+                continue;
+            }
+            Operator op = (Operator) tab_op_hash.get(tabname);
+            if (op.getOpType() == OpType.INDEXSCAN) {
+                ((IndexScan) op).setColumns(needed, rowids);
+            } else {
+                ((Scan) op).setColumns(needed, rowids);
+            }
+        }
+    }
+    
+    /** adds the attributes of the table in the condition to attrs **/
+    
+    private void addAttributes(Vector<Attribute> attrs, String tabname, Condition cn) {
+        Vector<Object> condattrs = new Vector<>();
+        condattrs.add(cn.getLhs());
+        if (cn.getRhs() instanceof Attribute) {
+            condattrs.add(cn.getRhs());
+        }
+        addAttributes(attrs, tabname, condattrs);
+    }
+    
+    private void addAttributes(Vector<Attribute> attrs, String tabname, Vector<?> list) {
+        if (list == null) {
+            return;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            Attribute attr = (Attribute) list.elementAt(i);
+            if (attr.getTabName().equals(tabname) && !containsAttribute(attrs, attr)) {
+                attrs.add(attr);
+            }
+        }
+    }
+    
+    private boolean containsAttribute(Vector<Attribute> attrs, Attribute attr) {
+        for (int i = 0; i < attrs.size(); i++) {
+            if (attr.equals(attrs.elementAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
     /** Create Selection Operators for each of the
      ** selection condition mentioned in Condition list
      **/
     
     
     public void createSelectOp() {
-        Select op1 = null;
+        Operator op1 = null;
         
         for (int j = 0; j < selectionlist.size(); j++) {
             
@@ -127,6 +268,19 @@ public class RandomInitialPlan {
                 //System.out.println("RandomInitial:-------------Select-------:"+tabname);
                 
                 Operator tempop = (Operator) tab_op_hash.get(tabname);
+                if (tempop.getOpType() == OpType.INDEXSCAN && ((IndexScan) tempop).getCondition() == cn) {
+                    /** already checked by the index scan **/
+                    op1 = tempop;
+                    continue;
+                }
+                if (tempop.getOpType() == OpType.SELECT) {
+                    /** all the conditions on a table are checked
+                     ** in one pass by the same Select
+                     **/
+                    op1 = tempop;
+                    ((Select) op1).addCondition(cn);
+                    continue;
+                }
                 op1 = new Select(tempop, cn, OpType.SELECT);
                 /** set the schema same as base relation **/
                 op1.setSchema(tempop.getSchema());
@@ -158,7 +312,8 @@ public class RandomInitialPlan {
             while (bitCList.get(jnnum)) {
                 jnnum = RandNumb.randInt(0, numJoin - 1);
             }
-            Condition cn = (Condition) joinlist.elementAt(jnnum);
+            Vector<Condition> group = joingroups.elementAt(jnnum);
+            Condition cn = group.elementAt(0);
             String lefttab = cn.getLhs().getTabName();
             String righttab = ((Attribute) cn.getRhs()).getTabName();
             
@@ -167,6 +322,9 @@ public class RandomInitialPlan {
             Operator left = (Operator) tab_op_hash.get(lefttab);
             Operator right = (Operator) tab_op_hash.get(righttab);
             jn = new Join(left, right, cn, OpType.JOIN);
+            for (int i = 1; i < group.size(); i++) {
+                jn.addCondition(group.elementAt(i));
+            }
             jn.setNodeIndex(jnnum);
             Schema newsche = left.getSchema().joinWith(right.getSchema());
             jn.setSchema(newsche);
@@ -198,7 +356,21 @@ public class RandomInitialPlan {
         
         if (!projectlist.isEmpty()) {
             root = new Project(base, projectlist, OpType.PROJECT);
-            Schema newSchema = base.getSchema().subSchema(projectlist);
+            /** the attributes read by row ids are taken from their tables **/
+            Vector<Attribute> newVec = new Vector<>();
+            int newtupsize = 0;
+            for (int i = 0; i < projectlist.size(); i++) {
+                Attribute attr = (Attribute) projectlist.elementAt(i);
+                Schema from = base.getSchema();
+                if (!from.contains(attr)) {
+                    from = tab_schema_hash.get(attr.getTabName());
+                }
+                Attribute fullattr = from.getAttribute(from.indexOf(attr));
+                newVec.add(fullattr);
+                newtupsize = newtupsize + fullattr.getAttrSize();
+            }
+            Schema newSchema = new Schema(newVec);
+            newSchema.setTupleSize(newtupsize);
             root.setSchema(newSchema);
         }
     }
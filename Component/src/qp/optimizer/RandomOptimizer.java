@@ -34,6 +34,13 @@ public class RandomOptimizer {
     SQLQuery sqlquery;     // Vector of Vectors of Select + From + Where + GroupBy
     int numJoin;          // Number of joins in this query plan
 
+    /** Number of threads a projection of selections on a table is split
+     ** over, one range of pages of the table per thread; also the number
+     ** of threads joining the pairs of partitions of a hash join
+     **/
+
+    static int numWorkers = Runtime.getRuntime().availableProcessors();
+
 
     /**
      * constructor
@@ -43,6 +50,14 @@ public class RandomOptimizer {
         this.sqlquery = sqlquery;
     }
 
+    public static void setNumWorkers(int num) {
+        numWorkers = num;
+    }
+
+    public static int getNumWorkers() {
+        return numWorkers;
+    }
+
 
     /**
      * Randomly selects a neighbour
@@ -105,8 +120,56 @@ public class RandomOptimizer {
         } else {
             Operator bestPlan = iterativeImprovement(initPlan, pc);
             bestPlan = simulatedAnnealing(bestPlan, pc);
-            return bestPlan;
+            return cheaperMaterialization(bestPlan, pc);
+        }
+    }
+
+
+    /**
+     * In late materialization the scans return only some attributes of
+     * * the records (see RandomInitialPlan), returns the same plan with the
+     * * whole records instead if it costs less than reading the projected
+     * * attributes by row ids
+     **/
+
+    protected Operator cheaperMaterialization(Operator plan, PlanCost pc) {
+        Operator eager = (Operator) plan.clone();
+        if (!returnAllColumns(eager)) {
+            return plan;
+        }
+        modifySchema(eager);
+        int latecost = pc.getCost(plan);
+        int eagercost = pc.getCost(eager);
+        return eagercost < latecost ? eager : plan;
+    }
+
+    /** the scans below return the whole records, false if they already do **/
+
+    private boolean returnAllColumns(Operator node) {
+        if (node.getOpType() == OpType.JOIN) {
+            boolean left = returnAllColumns(((Join) node).getLeft());
+            boolean right = returnAllColumns(((Join) node).getRight());
+            return left || right;
+        } else if (node.getOpType() == OpType.SELECT) {
+            return returnAllColumns(((Select) node).getBase());
+        } else if (node.getOpType() == OpType.PROJECT) {
+            return returnAllColumns(((Project) node).getBase());
+        } else if (node.getOpType() == OpType.DISTINCT) {
+            return returnAllColumns(((Distinct) node).getBase());
+        } else if (node.getOpType() == OpType.GROUP_BY) {
+            return returnAllColumns(((GroupBy) node).getBase());
+        } else if (node.getOpType() == OpType.SCAN) {
+            if (((Scan) node).getProjection() == null)
+                return false;
+            ((Scan) node).setColumns(null, false);
+            return true;
+        } else if (node.getOpType() == OpType.INDEXSCAN) {
+            if (((IndexScan) node).getProjection() == null)
+                return false;
+            ((IndexScan) node).setColumns(null, false);
+            return true;
         }
+        return false;
     }
 
 
@@ -150,7 +213,7 @@ public class RandomOptimizer {
         node.setLeft(right);
         node.setRight(left);
         /*** also flip the condition i.e.,  A X a1b1 B   = B X b1a1 A  **/
-        node.getCondition().flip();
+        node.flipConditions();
         //Schema newschem = left.getSchema().joinWith(right.getSchema());
         // node.setSchema(newschem);
 
@@ -239,13 +302,14 @@ public class RandomOptimizer {
 //            System.out.println("----------------CASE 1-----------------");
 
             temp = new Join(leftright, right, op.getCondition(), OpType.JOIN);
+            temp.setConditions(op.getConditions());
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(leftleft);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
             op.setRight(temp);
-            op.setCondition(left.getCondition());
+            op.setConditions(left.getConditions());
 
         } else {
 //            System.out.println("--------------------CASE 2---------------");
@@ -253,15 +317,15 @@ public class RandomOptimizer {
              ** a1b1,  a4c4 are the join conditions at that join operator
              **/
             temp = new Join(leftleft, right, op.getCondition(), OpType.JOIN);
+            temp.setConditions(op.getConditions());
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(leftright);
             op.setRight(temp);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
-            Condition newcond = left.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            left.flipConditions();
+            op.setConditions(left.getConditions());
         }
     }
 
@@ -279,19 +343,21 @@ public class RandomOptimizer {
         if (rightleft.getSchema().contains(rightAttr)) {
 //            System.out.println("----------------------CASE 3-----------------------");
             temp = new Join(left, rightleft, op.getCondition(), OpType.JOIN);
+            temp.setConditions(op.getConditions());
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(temp);
             op.setRight(rightright);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            op.setCondition(right.getCondition());
+            op.setConditions(right.getConditions());
         } else {
             /** CASE 4 :  A X a1c1 (B X b4c4  C)     =  (A X a1c1 C ) X c4b4 B
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
 //            System.out.println("-----------------------------CASE 4-----------------");
             temp = new Join(left, rightright, op.getCondition(), OpType.JOIN);
+            temp.setConditions(op.getConditions());
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
 
@@ -299,9 +365,8 @@ public class RandomOptimizer {
             op.setRight(rightleft);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            Condition newcond = right.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            right.flipConditions();
+            op.setConditions(right.getConditions());
         }
     }
 
@@ -356,8 +421,9 @@ public class RandomOptimizer {
         } else if (node.getOpType() == OpType.PROJECT) {
             Operator base = ((Project) node).getBase();
             modifySchema(base);
-            Vector attrlist = ((Project) node).getProjAttr();
-            node.setSchema(base.getSchema().subSchema(attrlist));
+            /** the projected attributes do not depend on the plan below,
+             ** and some may be read by row ids instead of coming from the base
+             **/
         } else if (node.getOpType() == OpType.DISTINCT) {
             Operator base = ((Distinct) node).getBase();
             modifySchema(base);
@@ -379,6 +445,11 @@ public class RandomOptimizer {
     public static Operator makeExecPlan(Operator node) {
 
         if (node.getOpType() == OpType.JOIN) {
+            /** sizes the filter of the left join values, before the
+             ** inputs are replaced by their executable operators **/
+            PlanCost leftcost = new PlanCost();
+            leftcost.getCost(((Join) node).getLeft());
+            ((Join) node).setLeftTuples(leftcost.getNumTuples());
             Operator left = makeExecPlan(((Join) node).getLeft());
             Operator right = makeExecPlan(((Join) node).getRight());
             int joinType = ((Join) node).getJoinType();
@@ -386,6 +457,7 @@ public class RandomOptimizer {
             switch (joinType) {
                 case JoinType.NESTEDJOIN:
 
+                    mapInnerScan(right);
                     NestedJoin nj = new NestedJoin((Join) node);
                     nj.setLeft(left);
                     nj.setRight(right);
@@ -394,10 +466,12 @@ public class RandomOptimizer {
 
                 case JoinType.BLOCKNESTED:
 
+                    mapInnerScan(right);
                     BlockNestedJoin bj = new BlockNestedJoin((Join) node);
                     bj.setLeft(left);
                     bj.setRight(right);
                     bj.setNumBuff(numbuff);
+                    bj.setPrefetch(BufferManager.getPrefetchDepth());
                     return bj;
 
                 case JoinType.SORTMERGE:
@@ -406,15 +480,51 @@ public class RandomOptimizer {
                     sm.setLeft(left);
                     sm.setRight(right);
                     sm.setNumBuff(numbuff);
+                    sm.setPrefetch(BufferManager.getPrefetchDepth());
                     return sm;
 
-                /** Temporarity used simple nested join,
-                 replace with hashjoin, if implemented **/
                 case JoinType.HASHJOIN:
 
-                    NestedJoin hj = new NestedJoin((Join) node);
-                    /* + other code */
+                    HashJoin hj;
+                    if (numWorkers > 1) {
+                        /** the pairs of partitions are joined by numWorkers threads **/
+                        hj = new ParallelHashJoin((Join) node);
+                        ((ParallelHashJoin) hj).setNumWorkers(numWorkers);
+                    } else {
+                        hj = new HashJoin((Join) node);
+                    }
+                    hj.setLeft(left);
+                    hj.setRight(right);
+                    hj.setNumBuff(numbuff);
+                    hj.setPrefetch(BufferManager.getPrefetchDepth());
                     return hj;
+
+                case JoinType.HYBRIDHASH:
+
+                    HybridHashJoin hh = new HybridHashJoin((Join) node);
+                    hh.setLeft(left);
+                    hh.setRight(right);
+                    hh.setNumBuff(numbuff);
+                    hh.setPrefetch(BufferManager.getPrefetchDepth());
+                    return hh;
+
+                case JoinType.INDEXNESTED:
+
+                    /** PlanCost only chooses it when the right table is indexed **/
+                    IndexNestedJoin ij = new IndexNestedJoin((Join) node);
+                    ij.setLeft(left);
+                    ij.setRight(right);
+                    ij.setNumBuff(numbuff);
+                    return ij;
+
+                case JoinType.RANGEJOIN:
+
+                    RangeJoin rj = new RangeJoin((Join) node);
+                    rj.setLeft(left);
+                    rj.setRight(right);
+                    rj.setNumBuff(numbuff);
+                    rj.setPrefetch(BufferManager.getPrefetchDepth());
+                    return rj;
                 default:
                     return node;
             }
@@ -425,24 +535,48 @@ public class RandomOptimizer {
         } else if (node.getOpType() == OpType.PROJECT) {
             Operator base = makeExecPlan(((Project) node).getBase());
             ((Project) node).setBase(base);
+            /** a projection of selections on a table is scanned in parallel
+             ** by several threads and otherwise run as compiled code **/
+            Gather gather = Gather.partition((Project) node, numWorkers);
+            if (gather != null)
+                return gather;
+            Project fused = PipelineCompiler.compile((Project) node);
+            if (fused != null)
+                return fused;
             return node;
         } else if (node.getOpType() == OpType.DISTINCT) {
             int totalbuff = BufferManager.getBuffers();
             Operator base = makeExecPlan(((Distinct) node).getBase());
             ((Distinct) node).setBase(base);
             ((Distinct) node).setNumBuff(totalbuff);
+            ((Distinct) node).setPrefetch(BufferManager.getPrefetchDepth());
             return node;
         } else if (node.getOpType() == OpType.GROUP_BY) {
             int totalbuff = BufferManager.getBuffers();
             Operator base = makeExecPlan(((GroupBy) node).getBase());
             ((GroupBy) node).setBase(base);
             ((GroupBy) node).setNumBuff(totalbuff);
+            ((GroupBy) node).setPrefetch(BufferManager.getPrefetchDepth());
+            return node;
+        } else if (node.getOpType() == OpType.SCAN) {
+            ((Scan) node).setPrefetch(BufferManager.getPrefetchDepth());
             return node;
         } else {
             return node;
         }
     }
 
+    /**
+     * The inner table of a nested loop join is scanned repeatedly,
+     * * scan it from the memory mapped table file
+     **/
+
+    private static void mapInnerScan(Operator right) {
+        if (right.getOpType() == OpType.SCAN) {
+            ((Scan) right).setMapped(true);
+        }
+    }
+
     protected Operator iterativeImprovement(Operator initPlan, PlanCost pc) {
         System.out.println();
         System.out.println("-----------Iterative Improvement start-------------");
@@ -0,0 +1,431 @@
+/**
+ * B+-tree index over a column of a base table
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+
+/**
+ * The file <tablename>.<column>.idx holds one entry (key, page, slot) per
+ * record of the binary table file <tablename>.dat, where page and slot
+ * locate the record. Page 0 is the header (magic, page size, key type,
+ * key width, root page, height, number of leaves, number of entries),
+ * the leaves follow from page 1 and the inner nodes after them.
+ * A node starts with NODE_HEADER bytes (whether it is a leaf, number of
+ * keys, next leaf or first child). A leaf entry is a key followed by the
+ * page and slot of its record, the entries of a leaf are sorted on the
+ * key and the leaves are chained in key order. An inner entry is a key
+ * followed by the child holding the keys from that key on; the first
+ * child holds the smaller keys. Keys are encoded as the column is in
+ * PageLayout. The tree is built bottom up from the sorted entries of the
+ * table by build() and is not changed afterwards
+ **/
+
+public class BTreeIndex implements PagedFile {
+
+    public static final String SUFFIX = ".idx";
+    public static final int MAGIC = 0x51504958;
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    static final int HEADER_SIZE = 36;
+    static final int NODE_HEADER = 12;
+
+    String filename;
+    int pagesize;
+    int keytype;      // Attribute.INT/REAL/STRING
+    int keywidth;     // Number of bytes of an encoded key
+    int root;         // Page of the root node
+    int height;       // Number of levels, 1 when the root is a leaf
+    int numleaves;
+    long numentries;
+
+    FileChannel channel;
+
+    /** opened indexes, shared by all the plans using them **/
+    static Hashtable<String, BTreeIndex> openIndexes = new Hashtable<>();
+
+
+    /** name of the index file on the column of the table **/
+
+    public static String fileName(String tabname, String colname) {
+        return tabname + "." + colname + SUFFIX;
+    }
+
+    /** whether the column of the table is indexed **/
+
+    public static boolean exists(String tabname, String colname) {
+        return new File(fileName(tabname, colname)).exists();
+    }
+
+    /** the index on the column of the table, opened by the first call **/
+
+    public static BTreeIndex forColumn(String tabname, String colname) throws IOException {
+        String filename = fileName(tabname, colname);
+        BTreeIndex index = openIndexes.get(filename);
+        if (index == null) {
+            index = new BTreeIndex(filename);
+            openIndexes.put(filename, index);
+        }
+        return index;
+    }
+
+
+    /** opens the index file and reads its header **/
+
+    public BTreeIndex(String filename) throws IOException {
+        this.filename = filename;
+        channel = new RandomAccessFile(filename, "r").getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("BTreeIndex: truncated header in " + filename);
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("BTreeIndex: " + filename + " is not an index file");
+        }
+        pagesize = header.getInt(4);
+        keytype = header.getInt(8);
+        keywidth = header.getInt(12);
+        root = header.getInt(16);
+        height = header.getInt(20);
+        numleaves = header.getInt(24);
+        numentries = header.getLong(28);
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    public int getPageSize() {
+        return pagesize;
+    }
+
+    public int getKeyType() {
+        return keytype;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumLeaves() {
+        return numleaves;
+    }
+
+    public long getNumEntries() {
+        return numentries;
+    }
+
+    public void readPage(int pageno, ByteBuffer dst) throws IOException {
+        dst.clear();
+        long offset = (long) pageno * pagesize;
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, offset + dst.position()) < 0) {
+                throw new IOException("BTreeIndex: truncated page " + pageno + " in " + filename);
+            }
+        }
+    }
+
+
+    /** compares two keys of the same type **/
+
+    public static int compareKeys(Object k1, Object k2) {
+        if (k1 instanceof Integer) {
+            return Integer.compare((Integer) k1, (Integer) k2);
+        } else if (k1 instanceof Float) {
+            return Float.compare((Float) k1, (Float) k2);
+        }
+        return ((String) k1).compareTo((String) k2);
+    }
+
+    Object readKey(ByteBuffer buf, int pos) {
+        switch (keytype) {
+            case Attribute.INT:
+                return Integer.valueOf(buf.getInt(pos));
+            case Attribute.REAL:
+                return Float.valueOf(buf.getFloat(pos));
+            default:
+                int len = buf.getShort(pos);
+                char[] chars = new char[len];
+                for (int j = 0; j < len; j++) {
+                    chars[j] = buf.getChar(pos + 2 + 2 * j);
+                }
+                return new String(chars);
+        }
+    }
+
+    static void writeKey(ByteBuffer buf, int pos, int keytype, Object key) {
+        switch (keytype) {
+            case Attribute.INT:
+                buf.putInt(pos, ((Integer) key).intValue());
+                break;
+            case Attribute.REAL:
+                buf.putFloat(pos, ((Float) key).floatValue());
+                break;
+            default:
+                String str = (String) key;
+                buf.putShort(pos, (short) str.length());
+                for (int j = 0; j < str.length(); j++) {
+                    buf.putChar(pos + 2 + 2 * j, str.charAt(j));
+                }
+        }
+    }
+
+
+    /** Cursor at the first entry whose key is not smaller than the key **/
+
+    public Cursor seek(Object key) throws IOException {
+        int innersize = keywidth + 4;
+        int pageno = root;
+        for (int level = 1; level < height; level++) {
+            BufferPool.Frame frame = BufferPool.pin(this, pageno);
+            ByteBuffer buf = frame.getBuffer();
+            /** the child is the one after the last separator smaller than the key,
+             ** the first of equal keys may be at the end of that child
+             **/
+            int lo = 0;
+            int hi = buf.getInt(4);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareKeys(readKey(buf, NODE_HEADER + mid * innersize), key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            pageno = lo == 0 ? buf.getInt(8) : buf.getInt(NODE_HEADER + (lo - 1) * innersize + keywidth);
+            BufferPool.unpin(frame);
+        }
+        Cursor cursor = new Cursor();
+        cursor.load(pageno);
+        int lo = 0;
+        int hi = cursor.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKeys(cursor.keys[mid], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        cursor.pos = lo;
+        return cursor;
+    }
+
+    /** Cursor at the first entry of the index **/
+
+    public Cursor first() throws IOException {
+        Cursor cursor = new Cursor();
+        cursor.load(1);
+        return cursor;
+    }
+
+
+    /** Walks over the entries in key order. The entries of the current
+     ** leaf are copied out, so no frame stays pinned between calls
+     **/
+
+    public class Cursor {
+        Object[] keys;
+        int[] pages;
+        int[] slots;
+        int count;     // Number of entries in the leaf
+        int pos;       // Current entry in the leaf
+        int next;      // Next leaf, -1 after the last one
+
+        void load(int pageno) throws IOException {
+            int leafsize = keywidth + 8;
+            BufferPool.Frame frame = BufferPool.pin(BTreeIndex.this, pageno);
+            ByteBuffer buf = frame.getBuffer();
+            count = buf.getInt(4);
+            next = buf.getInt(8);
+            keys = new Object[count];
+            pages = new int[count];
+            slots = new int[count];
+            for (int i = 0; i < count; i++) {
+                int pos = NODE_HEADER + i * leafsize;
+                keys[i] = readKey(buf, pos);
+                pages[i] = buf.getInt(pos + keywidth);
+                slots[i] = buf.getInt(pos + keywidth + 4);
+            }
+            BufferPool.unpin(frame);
+            pos = 0;
+        }
+
+        /** whether the cursor is at an entry, false after the last one **/
+
+        public boolean isValid() throws IOException {
+            while (pos == count && next != -1) {
+                load(next);
+            }
+            return pos < count;
+        }
+
+        public Object getKey() {
+            return keys[pos];
+        }
+
+        /** page of the record in the table file **/
+
+        public int getPageNo() {
+            return pages[pos];
+        }
+
+        /** slot of the record in its page **/
+
+        public int getSlot() {
+            return slots[pos];
+        }
+
+        public void advance() {
+            pos++;
+        }
+    }
+
+
+    /** Builds the index file on the column of the table from its binary table file **/
+
+    public static void build(String tabname, Schema schema, int col, int pagesize) throws IOException {
+        TableFile table = new TableFile(TableFile.fileName(tabname), schema);
+        PageLayout layout = table.getLayout();
+        int keytype = layout.getType(col);
+        int keywidth = layout.getWidth(col);
+
+        /** the entries of all the records, sorted on the key **/
+        ArrayList<Object[]> entries = new ArrayList<>();
+        for (int p = 0; p < table.getNumPages(); p++) {
+            ByteBuffer buf = table.fetchPage(p);
+            int base = table.pageBase(p);
+            int num = layout.getNumTuples(buf, base);
+            for (int s = 0; s < num; s++) {
+                int start = layout.recordStart(base, s);
+                Object key;
+                if (keytype == Attribute.INT) {
+                    key = Integer.valueOf(layout.readInt(buf, start, col));
+                } else if (keytype == Attribute.REAL) {
+                    key = Float.valueOf(layout.readFloat(buf, start, col));
+                } else {
+                    key = layout.readString(buf, start, col);
+                }
+                entries.add(new Object[]{key, Integer.valueOf(p), Integer.valueOf(s)});
+            }
+        }
+        table.close();
+        Collections.sort(entries, new Comparator<Object[]>() {
+            public int compare(Object[] e1, Object[] e2) {
+                int diff = compareKeys(e1[0], e2[0]);
+                if (diff == 0)
+                    diff = ((Integer) e1[1]).compareTo((Integer) e2[1]);
+                if (diff == 0)
+                    diff = ((Integer) e1[2]).compareTo((Integer) e2[2]);
+                return diff;
+            }
+        });
+
+        int leafcapacity = (pagesize - NODE_HEADER) / (keywidth + 8);
+        int innercapacity = (pagesize - NODE_HEADER) / (keywidth + 4);
+        if (pagesize < HEADER_SIZE || leafcapacity < 1 || innercapacity < 1) {
+            throw new IOException("BTreeIndex: page size " + pagesize + " is too small for keys of "
+                    + keywidth + " bytes");
+        }
+
+        String filename = fileName(tabname, schema.getAttribute(col).getColName());
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        file.setLength(0);
+        FileChannel out = file.getChannel();
+        ByteBuffer page = ByteBuffer.allocate(pagesize);
+        int numpages = 1;   // page 0 is the header
+
+        /** leaves, with the first key and page of each one for the level above **/
+        ArrayList<Object> levelkeys = new ArrayList<>();
+        ArrayList<Integer> levelpages = new ArrayList<>();
+        int numleaves = Math.max(1, (entries.size() + leafcapacity - 1) / leafcapacity);
+        for (int l = 0; l < numleaves; l++) {
+            int from = l * leafcapacity;
+            int to = Math.min(entries.size(), from + leafcapacity);
+            clear(page);
+            page.putInt(0, 1);
+            page.putInt(4, to - from);
+            page.putInt(8, l == numleaves - 1 ? -1 : numpages + 1);
+            for (int i = from; i < to; i++) {
+                Object[] entry = entries.get(i);
+                int pos = NODE_HEADER + (i - from) * (keywidth + 8);
+                writeKey(page, pos, keytype, entry[0]);
+                page.putInt(pos + keywidth, ((Integer) entry[1]).intValue());
+                page.putInt(pos + keywidth + 4, ((Integer) entry[2]).intValue());
+            }
+            levelkeys.add(to > from ? entries.get(from)[0] : null);
+            levelpages.add(numpages);
+            writePage(out, page, numpages++);
+        }
+
+        /** inner levels until a single node is left **/
+        int height = 1;
+        while (levelpages.size() > 1) {
+            ArrayList<Object> upperkeys = new ArrayList<>();
+            ArrayList<Integer> upperpages = new ArrayList<>();
+            int fanout = innercapacity + 1;
+            for (int from = 0; from < levelpages.size(); from += fanout) {
+                int to = Math.min(levelpages.size(), from + fanout);
+                clear(page);
+                page.putInt(0, 0);
+                page.putInt(4, to - from - 1);
+                page.putInt(8, levelpages.get(from));
+                for (int i = from + 1; i < to; i++) {
+                    int pos = NODE_HEADER + (i - from - 1) * (keywidth + 4);
+                    writeKey(page, pos, keytype, levelkeys.get(i));
+                    page.putInt(pos + keywidth, levelpages.get(i));
+                }
+                upperkeys.add(levelkeys.get(from));
+                upperpages.add(numpages);
+                writePage(out, page, numpages++);
+            }
+            levelkeys = upperkeys;
+            levelpages = upperpages;
+            height++;
+        }
+
+        clear(page);
+        page.putInt(0, MAGIC);
+        page.putInt(4, pagesize);
+        page.putInt(8, keytype);
+        page.putInt(12, keywidth);
+        page.putInt(16, levelpages.get(0));
+        page.putInt(20, height);
+        page.putInt(24, numleaves);
+        page.putLong(28, entries.size());
+        writePage(out, page, 0);
+        out.close();
+
+        /** the pages of an earlier index on the column are stale **/
+        BufferPool.invalidate(filename);
+        BTreeIndex old = openIndexes.remove(filename);
+        if (old != null) {
+            old.channel.close();
+        }
+    }
+
+    static void clear(ByteBuffer page) {
+        page.clear();
+        for (int i = 0; i < page.capacity(); i++) {
+            page.put(i, (byte) 0);
+        }
+    }
+
+    static void writePage(FileChannel out, ByteBuffer page, int pageno) throws IOException {
+        page.clear();
+        long offset = (long) pageno * page.capacity();
+        while (page.hasRemaining()) {
+            out.write(page, offset + page.position());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Bloom filter over the values of a join attribute
+ **/
+
+package qp.utils;
+
+import java.util.Arrays;
+
+/**
+ * The bits are allocated when the filter is created, about BITS_PER_VALUE
+ * bits for each of the expected number of values, and add() sets the bits
+ * of each value (the hashCode of the boxed value, as returned by
+ * Tuple.dataAt) as it comes. Every value sets NUMHASHES bits chosen by
+ * double hashing of its hash code. mightContain is false only for values
+ * that were not added, so a tuple rejected by the filter of the other side
+ * of an equi-join cannot be part of the result. More values than expected
+ * only raise the rate of false positives. Until build() the filter accepts
+ * every value
+ **/
+
+public class BloomFilter {
+
+    public static final int BITS_PER_VALUE = 10;  // About 1% false positives
+    static final int NUMHASHES = 7;
+    static final int MAXBITS = 1 << 26;           // 8 MB, for estimates far above the real input
+    static final int DEFAULT_VALUES = 1 << 16;    // Expected values when there is no estimate
+
+    long[] bits;
+    int mask;         // Number of bits - 1, a power of 2 - 1
+    boolean built;    // Whether all the values are added
+
+    int numvalues;
+
+
+    /** a filter for about expected values, as estimated by the optimizer,
+     ** or DEFAULT_VALUES if there is no estimate (0)
+     **/
+
+    public BloomFilter(int expected) {
+        if (expected <= 0) {
+            expected = DEFAULT_VALUES;
+        }
+        long numbits = 64;
+        while (numbits < (long) expected * BITS_PER_VALUE && numbits < MAXBITS) {
+            numbits = numbits << 1;
+        }
+        bits = new long[(int) (numbits >>> 6)];
+        mask = (int) numbits - 1;
+        reset();
+    }
+
+    /** forget the values, the filter accepts every value until the next build **/
+
+    public void reset() {
+        built = false;
+        Arrays.fill(bits, 0L);
+        numvalues = 0;
+    }
+
+    public void add(Object value) {
+        int h1 = mix(value.hashCode());
+        int h2 = (h1 >>> 15) | 1;
+        for (int j = 0; j < NUMHASHES; j++) {
+            int bit = (h1 + j * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        numvalues++;
+    }
+
+    /** marks all the values as added, mightContain checks the bits from now on **/
+
+    public void build() {
+        built = true;
+    }
+
+    public boolean isBuilt() {
+        return built;
+    }
+
+    public int getNumValues() {
+        return numvalues;
+    }
+
+
+    public boolean mightContain(Object value) {
+        return mightContainHash(value.hashCode());
+    }
+
+    /** whether the value with given hash code might have been added **/
+
+    public boolean mightContainHash(int hashcode) {
+        if (!built) {
+            return true;
+        }
+        int h1 = mix(hashcode);
+        int h2 = (h1 >>> 15) | 1;
+        for (int j = 0; j < NUMHASHES; j++) {
+            int bit = (h1 + j * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** spreads the bits of hash codes of consecutive values **/
+
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
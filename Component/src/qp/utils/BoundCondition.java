@@ -0,0 +1,300 @@
+/**
+ * A selection condition bound to the schema of its input
+ **/
+
+package qp.utils;
+
+import java.util.Vector;
+
+/**
+ * The column index, the type of the attribute and the constant are
+ * resolved once when the condition is bound, and the comparison is
+ * chosen then as a subclass for the given operator, so testing a
+ * tuple is a single typed access and compare
+ **/
+
+public abstract class BoundCondition {
+
+    int col;        // Index of the attribute in the schema
+    int exprtype;   // Condition.LESSTHAN, EQUAL ...
+
+
+    BoundCondition(int col, int exprtype) {
+        this.col = col;
+        this.exprtype = exprtype;
+    }
+
+    public int getColumn() {
+        return col;
+    }
+
+    public int getExprType() {
+        return exprtype;
+    }
+
+    /** whether the tuple satisfies the condition **/
+
+    public abstract boolean test(Tuple t);
+
+    /** keep only the selected rows of the columns satisfying the condition **/
+
+    public abstract void select(ColumnBatch cols);
+
+
+    /** binds the conditions, all on the given schema **/
+
+    public static BoundCondition[] bindAll(Vector<Condition> conditions, Schema schema) {
+        BoundCondition[] bound = new BoundCondition[conditions.size()];
+        for (int i = 0; i < bound.length; i++) {
+            bound[i] = bind(conditions.elementAt(i), schema);
+        }
+        return bound;
+    }
+
+    /** whether the tuple satisfies all the conditions **/
+
+    public static boolean testAll(BoundCondition[] conds, Tuple t) {
+        for (int i = 0; i < conds.length; i++) {
+            if (!conds[i].test(t))
+                return false;
+        }
+        return true;
+    }
+
+    /** keep only the rows satisfying all the conditions **/
+
+    public static void selectAll(BoundCondition[] conds, ColumnBatch cols) {
+        for (int i = 0; i < conds.length && cols.numSelected() > 0; i++) {
+            conds[i].select(cols);
+        }
+    }
+
+
+    /** condition attr op "constant" on the given schema **/
+
+    public static BoundCondition bind(Condition con, Schema schema) {
+        Attribute attr = con.getLhs();
+        int index = schema.indexOf(attr);
+        int datatype = schema.typeOf(attr);
+        String checkValue = (String) con.getRhs();
+        int exprtype = con.getExprType();
+
+        if (datatype == Attribute.INT) {
+            return bindInt(index, exprtype, Integer.parseInt(checkValue));
+        } else if (datatype == Attribute.REAL) {
+            return bindFloat(index, exprtype, Float.parseFloat(checkValue));
+        } else {
+            return bindString(index, exprtype, checkValue);
+        }
+    }
+
+
+    /** whether the value of the attribute might be in the filter,
+     ** for the filters built by the other side of a join on it
+     **/
+
+    public static BoundCondition bindFilter(Attribute attr, Schema schema, BloomFilter filter) {
+        return new FilterCondition(schema.indexOf(attr), schema.typeOf(attr), filter);
+    }
+
+
+    static BoundCondition bindInt(int index, int exprtype, int value) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return new IntCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.intAt(col) < value;
+                    }
+                };
+            case Condition.GREATERTHAN:
+                return new IntCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.intAt(col) > value;
+                    }
+                };
+            case Condition.LTOE:
+                return new IntCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.intAt(col) <= value;
+                    }
+                };
+            case Condition.GTOE:
+                return new IntCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.intAt(col) >= value;
+                    }
+                };
+            case Condition.EQUAL:
+                return new IntCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.intAt(col) == value;
+                    }
+                };
+            case Condition.NOTEQUAL:
+                return new IntCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.intAt(col) != value;
+                    }
+                };
+            default:
+                return incorrect();
+        }
+    }
+
+    static BoundCondition bindFloat(int index, int exprtype, float value) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return new FloatCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.floatAt(col) < value;
+                    }
+                };
+            case Condition.GREATERTHAN:
+                return new FloatCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.floatAt(col) > value;
+                    }
+                };
+            case Condition.LTOE:
+                return new FloatCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.floatAt(col) <= value;
+                    }
+                };
+            case Condition.GTOE:
+                return new FloatCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.floatAt(col) >= value;
+                    }
+                };
+            case Condition.EQUAL:
+                return new FloatCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.floatAt(col) == value;
+                    }
+                };
+            case Condition.NOTEQUAL:
+                return new FloatCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.floatAt(col) != value;
+                    }
+                };
+            default:
+                return incorrect();
+        }
+    }
+
+    static BoundCondition bindString(int index, int exprtype, String value) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return new StringCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.stringAt(col).compareTo(value) < 0;
+                    }
+                };
+            case Condition.GREATERTHAN:
+                return new StringCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.stringAt(col).compareTo(value) > 0;
+                    }
+                };
+            case Condition.LTOE:
+                return new StringCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.stringAt(col).compareTo(value) <= 0;
+                    }
+                };
+            case Condition.GTOE:
+                return new StringCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.stringAt(col).compareTo(value) >= 0;
+                    }
+                };
+            case Condition.EQUAL:
+                return new StringCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return t.stringAt(col).equals(value);
+                    }
+                };
+            case Condition.NOTEQUAL:
+                return new StringCondition(index, exprtype, value) {
+                    public boolean test(Tuple t) {
+                        return !t.stringAt(col).equals(value);
+                    }
+                };
+            default:
+                return incorrect();
+        }
+    }
+
+    static BoundCondition incorrect() {
+        System.out.println("BoundCondition: Incorrect condition operator");
+        System.exit(1);
+        return null;
+    }
+
+
+    static class FilterCondition extends BoundCondition {
+        final int datatype;
+        final BloomFilter filter;
+
+        FilterCondition(int col, int datatype, BloomFilter filter) {
+            super(col, Condition.EQUAL);
+            this.datatype = datatype;
+            this.filter = filter;
+        }
+
+        public boolean test(Tuple t) {
+            if (datatype == Attribute.INT) {
+                return filter.mightContainHash(Integer.hashCode(t.intAt(col)));
+            } else if (datatype == Attribute.REAL) {
+                return filter.mightContainHash(Float.hashCode(t.floatAt(col)));
+            } else {
+                return filter.mightContainHash(t.stringAt(col).hashCode());
+            }
+        }
+
+        public void select(ColumnBatch cols) {
+            cols.selectFilter(col, filter);
+        }
+    }
+
+    static abstract class IntCondition extends BoundCondition {
+        final int value;
+
+        IntCondition(int col, int exprtype, int value) {
+            super(col, exprtype);
+            this.value = value;
+        }
+
+        public void select(ColumnBatch cols) {
+            cols.selectInt(col, exprtype, value);
+        }
+    }
+
+    static abstract class FloatCondition extends BoundCondition {
+        final float value;
+
+        FloatCondition(int col, int exprtype, float value) {
+            super(col, exprtype);
+            this.value = value;
+        }
+
+        public void select(ColumnBatch cols) {
+            cols.selectFloat(col, exprtype, value);
+        }
+    }
+
+    static abstract class StringCondition extends BoundCondition {
+        final String value;
+
+        StringCondition(int col, int exprtype, String value) {
+            super(col, exprtype);
+            this.value = value;
+        }
+
+        public void select(ColumnBatch cols) {
+            cols.selectString(col, exprtype, value);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Pool of page frames for the pages of the table and index files
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+
+/**
+ * The pages of the binary table files and of the indexes are read into
+ * the frames of this pool. A page stays in its frame after it is unpinned, so a later scan
+ * of the same page, in the same plan or in a later query, finds it
+ * without reading the file. When a page is missing a frame is
+ * replaced with the CLOCK policy: the hand sweeps over the frames,
+ * skips the pinned ones, clears the reference bit of the recently used
+ * ones and takes the first frame whose bit is already cleared.
+ * The number of frames is the number of buffers given to BufferManager.
+ *
+ * Only the pages read from paged files go through the pool: the pages
+ * of the base tables, of the B+-tree indexes and of the sorted left
+ * input of RangeJoin. The working pages of the join, sort and hash
+ * operators (blocks, runs, partitions and output pages) are not taken
+ * from it; each operator keeps them within the numBuff it is given
+ **/
+
+public class BufferPool {
+
+    static final int DEFAULT_FRAMES = 3;  // as the default number of buffers
+
+    static Frame[] frames = newFrames(DEFAULT_FRAMES);
+    static Hashtable<PageKey, Frame> pages = new Hashtable<>();  // Frame holding each page
+    static int hand;        // Position of the clock hand
+
+    static long hits;       // Number of pins that found the page in the pool
+    static long misses;     // Number of pins that read the page from the file
+
+
+    /** The pool with the given number of frames, the pages
+     ** currently in the pool are dropped
+     **/
+
+    public static synchronized void setNumFrames(int numframes) {
+        frames = newFrames(numframes);
+        pages.clear();
+        hand = 0;
+    }
+
+    static Frame[] newFrames(int numframes) {
+        Frame[] newframes = new Frame[numframes];
+        for (int i = 0; i < numframes; i++) {
+            newframes[i] = new Frame();
+        }
+        return newframes;
+    }
+
+    public static synchronized int getNumFrames() {
+        return frames.length;
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+
+    /** Pins the page of the file into a frame, reading it from
+     ** the file if it is not already in the pool
+     **/
+
+    public static synchronized Frame pin(PagedFile file, int pageno) throws IOException {
+        PageKey key = new PageKey(file.getFileName(), pageno);
+        Frame frame = pages.get(key);
+        if (frame != null) {
+            hits++;
+        } else {
+            misses++;
+            frame = victim();
+            if (frame.key != null) {
+                pages.remove(frame.key);
+                frame.key = null;
+            }
+            if (frame.buf == null || frame.buf.capacity() != file.getPageSize()) {
+                frame.buf = ByteBuffer.allocate(file.getPageSize());
+            }
+            file.readPage(pageno, frame.buf);
+            frame.key = key;
+            pages.put(key, frame);
+        }
+        frame.pincount++;
+        frame.referenced = true;
+        return frame;
+    }
+
+    /** The frame can be replaced once all its pins are released **/
+
+    public static synchronized void unpin(Frame frame) {
+        if (frame.pincount > 0) {
+            frame.pincount--;
+        }
+    }
+
+    /** Drops the pages of the file, to be called when the file changes **/
+
+    public static synchronized void invalidate(String filename) {
+        for (int i = 0; i < frames.length; i++) {
+            Frame frame = frames[i];
+            if (frame.key != null && frame.key.filename.equals(filename) && frame.pincount == 0) {
+                pages.remove(frame.key);
+                frame.key = null;
+            }
+        }
+    }
+
+
+    /** The frame to be replaced, chosen by the clock **/
+
+    static Frame victim() throws IOException {
+        /** two sweeps clear all the reference bits,
+         ** after that only pinned frames are left
+         **/
+        for (int i = 0; i < 2 * frames.length; i++) {
+            Frame frame = frames[hand];
+            hand = (hand + 1) % frames.length;
+            if (frame.pincount > 0) {
+                continue;
+            }
+            if (frame.referenced) {
+                frame.referenced = false;
+                continue;
+            }
+            return frame;
+        }
+        throw new IOException("BufferPool: all the " + frames.length + " frames are pinned");
+    }
+
+
+    /** A frame of the pool, the page it holds starts at offset 0 of its buffer **/
+
+    public static class Frame {
+        PageKey key;          // Page in the frame, null if empty
+        ByteBuffer buf;
+        int pincount;         // Number of users of the page
+        boolean referenced;   // Reference bit of the clock
+
+        public ByteBuffer getBuffer() {
+            return buf;
+        }
+
+        public int getPageNo() {
+            return key.pageno;
+        }
+    }
+
+    static class PageKey {
+        final String filename;
+        final int pageno;
+
+        PageKey(String filename, int pageno) {
+            this.filename = filename;
+            this.pageno = pageno;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return pageno == other.pageno && filename.equals(other.filename);
+        }
+
+        public int hashCode() {
+            return filename.hashCode() * 31 + pageno;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * ColumnBatch represents a page of tuples stored column by column
+ **/
+
+package qp.utils;
+
+/**
+ * Every INT column is an int array, every REAL column a float array
+ * and every STRING column a String array, all indexed by row number.
+ * The selection vector lists, in order, the rows that are still part
+ * of the batch; filters only shrink the selection vector and never
+ * move the column data
+ **/
+
+public class ColumnBatch {
+
+    TupleLayout layout;
+    int[][] intcols;        // INT columns, null for the other types
+    float[][] floatcols;    // REAL columns, null for the other types
+    String[][] stringcols;  // STRING columns, null for the other types
+
+    int capacity;           // Number of rows the columns can hold
+    int size;               // Number of rows in the columns
+    int[] sel;              // Selection vector
+    int numsel;             // Number of selected rows
+
+
+    public ColumnBatch(TupleLayout layout, int capacity) {
+        this.layout = layout;
+        this.capacity = capacity;
+        int numcols = layout.getNumCols();
+        intcols = new int[numcols][];
+        floatcols = new float[numcols][];
+        stringcols = new String[numcols][];
+        for (int i = 0; i < numcols; i++) {
+            if (layout.types[i] == Attribute.INT) {
+                intcols[i] = new int[capacity];
+            } else if (layout.types[i] == Attribute.REAL) {
+                floatcols[i] = new float[capacity];
+            } else {
+                stringcols[i] = new String[capacity];
+            }
+        }
+        sel = new int[capacity];
+        size = 0;
+        numsel = 0;
+    }
+
+    /** columns of a batch of tuples **/
+
+    public static ColumnBatch fromBatch(Batch batch, TupleLayout layout) {
+        ColumnBatch cols = new ColumnBatch(layout, Math.max(batch.size(), 1));
+        for (int i = 0; i < batch.size(); i++) {
+            cols.addRow(batch.elementAt(i));
+        }
+        return cols;
+    }
+
+
+    public TupleLayout layout() {
+        return layout;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int numSelected() {
+        return numsel;
+    }
+
+    /** row number of the i-th selected row **/
+
+    public int selectedRow(int i) {
+        return sel[i];
+    }
+
+    public int[] intColumn(int col) {
+        return intcols[col];
+    }
+
+    public float[] floatColumn(int col) {
+        return floatcols[col];
+    }
+
+    public String[] stringColumn(int col) {
+        return stringcols[col];
+    }
+
+
+    /** append a row, it is selected **/
+
+    public void addRow(Tuple t) {
+        for (int i = 0; i < intcols.length; i++) {
+            if (intcols[i] != null) {
+                intcols[i][size] = t.intAt(i);
+            } else if (floatcols[i] != null) {
+                floatcols[i][size] = t.floatAt(i);
+            } else {
+                stringcols[i][size] = t.stringAt(i);
+            }
+        }
+        addRows(1);
+    }
+
+    /** mark the next num rows, whose columns are already filled, as added **/
+
+    void addRows(int num) {
+        for (int i = 0; i < num; i++) {
+            sel[numsel++] = size++;
+        }
+    }
+
+
+    /** the given row as a tuple **/
+
+    public Tuple rowAt(int row) {
+        Tuple t = new Tuple(layout);
+        for (int i = 0; i < intcols.length; i++) {
+            int slot = layout.slots[i];
+            if (intcols[i] != null) {
+                t.ints[slot] = intcols[i][row];
+            } else if (floatcols[i] != null) {
+                t.floats[slot] = floatcols[i][row];
+            } else {
+                t.strings[slot] = stringcols[i][row];
+            }
+        }
+        return t;
+    }
+
+    /** append the selected rows from..to-1 (positions in the selection vector) to out **/
+
+    public void appendRows(Batch out, int from, int to) {
+        for (int i = from; i < to; i++) {
+            out.add(rowAt(sel[i]));
+        }
+    }
+
+    /** all the selected rows as a page of tuples **/
+
+    public Batch toBatch(int batchsize) {
+        Batch out = new Batch(Math.max(batchsize, numsel));
+        appendRows(out, 0, numsel);
+        return out;
+    }
+
+
+    /**
+     * The given columns of this batch, the column arrays and the
+     * selection vector are shared and not copied
+     **/
+
+    public ColumnBatch project(int[] cols) {
+        ColumnBatch out = new ColumnBatch();
+        out.layout = layout.project(cols);
+        out.intcols = new int[cols.length][];
+        out.floatcols = new float[cols.length][];
+        out.stringcols = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            out.intcols[i] = intcols[cols[i]];
+            out.floatcols[i] = floatcols[cols[i]];
+            out.stringcols[i] = stringcols[cols[i]];
+        }
+        out.capacity = capacity;
+        out.size = size;
+        out.sel = sel;
+        out.numsel = numsel;
+        return out;
+    }
+
+    private ColumnBatch() {
+    }
+
+
+    /**
+     * Keep only the selected rows whose value in column col
+     * might be in the filter
+     **/
+
+    public void selectFilter(int col, BloomFilter filter) {
+        int k = 0;
+        if (intcols[col] != null) {
+            int[] data = intcols[col];
+            for (int i = 0; i < numsel; i++) {
+                int row = sel[i];
+                if (filter.mightContainHash(Integer.hashCode(data[row]))) sel[k++] = row;
+            }
+        } else if (floatcols[col] != null) {
+            float[] data = floatcols[col];
+            for (int i = 0; i < numsel; i++) {
+                int row = sel[i];
+                if (filter.mightContainHash(Float.hashCode(data[row]))) sel[k++] = row;
+            }
+        } else {
+            String[] data = stringcols[col];
+            for (int i = 0; i < numsel; i++) {
+                int row = sel[i];
+                if (filter.mightContainHash(data[row].hashCode())) sel[k++] = row;
+            }
+        }
+        numsel = k;
+    }
+
+    /**
+     * Keep only the selected rows whose value in column col compares
+     * with value as given by exprtype (Condition.LESSTHAN, EQUAL ...)
+     **/
+
+    public void selectInt(int col, int exprtype, int value) {
+        int[] data = intcols[col];
+        int k = 0;
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] < value) sel[k++] = row;
+                }
+                break;
+            case Condition.GREATERTHAN:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] > value) sel[k++] = row;
+                }
+                break;
+            case Condition.LTOE:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] <= value) sel[k++] = row;
+                }
+                break;
+            case Condition.GTOE:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] >= value) sel[k++] = row;
+                }
+                break;
+            case Condition.EQUAL:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] == value) sel[k++] = row;
+                }
+                break;
+            case Condition.NOTEQUAL:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] != value) sel[k++] = row;
+                }
+                break;
+            default:
+                System.out.println("ColumnBatch:Incorrect condition operator");
+                k = numsel;
+        }
+        numsel = k;
+    }
+
+    public void selectFloat(int col, int exprtype, float value) {
+        float[] data = floatcols[col];
+        int k = 0;
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] < value) sel[k++] = row;
+                }
+                break;
+            case Condition.GREATERTHAN:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] > value) sel[k++] = row;
+                }
+                break;
+            case Condition.LTOE:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] <= value) sel[k++] = row;
+                }
+                break;
+            case Condition.GTOE:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] >= value) sel[k++] = row;
+                }
+                break;
+            case Condition.EQUAL:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] == value) sel[k++] = row;
+                }
+                break;
+            case Condition.NOTEQUAL:
+                for (int i = 0; i < numsel; i++) {
+                    int row = sel[i];
+                    if (data[row] != value) sel[k++] = row;
+                }
+                break;
+            default:
+                System.out.println("ColumnBatch:Incorrect condition operator");
+                k = numsel;
+        }
+        numsel = k;
+    }
+
+    public void selectString(int col, int exprtype, String value) {
+        String[] data = stringcols[col];
+        int k = 0;
+        for (int i = 0; i < numsel; i++) {
+            int row = sel[i];
+            int flag = data[row].compareTo(value);
+            boolean keep;
+            switch (exprtype) {
+                case Condition.LESSTHAN:
+                    keep = flag < 0;
+                    break;
+                case Condition.GREATERTHAN:
+                    keep = flag > 0;
+                    break;
+                case Condition.LTOE:
+                    keep = flag <= 0;
+                    break;
+                case Condition.GTOE:
+                    keep = flag >= 0;
+                    break;
+                case Condition.EQUAL:
+                    keep = flag == 0;
+                    break;
+                case Condition.NOTEQUAL:
+                    keep = flag != 0;
+                    break;
+                default:
+                    keep = true;
+            }
+            if (keep) sel[k++] = row;
+        }
+        numsel = k;
+    }
+}
@@ -71,14 +71,36 @@ public class Condition {
         rhs = value;
     }
     
+    /** swaps the sides of a join condition, a < b becomes b > a **/
+    
     public void flip() {
         if (optype == JOIN) {
             Object temp = lhs;
             lhs = (Attribute) rhs;
             rhs = temp;
+            switch (exprtype) {
+                case LESSTHAN:
+                    exprtype = GREATERTHAN;
+                    break;
+                case GREATERTHAN:
+                    exprtype = LESSTHAN;
+                    break;
+                case LTOE:
+                    exprtype = GTOE;
+                    break;
+                case GTOE:
+                    exprtype = LTOE;
+                    break;
+            }
         }
     }
     
+    /** whether the condition bounds the lhs from below or above **/
+    
+    public boolean isRange() {
+        return exprtype == LESSTHAN || exprtype == GREATERTHAN || exprtype == LTOE || exprtype == GTOE;
+    }
+    
     public Object clone() {
         Attribute newlhs = (Attribute) lhs.clone();
         Object newrhs;
@@ -0,0 +1,72 @@
+/**
+ * Tuple backed by a record of a memory mapped table file
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The values are decoded from the mapped page when they are accessed,
+ * the record itself is never copied. When the tuple is serialized
+ * (e.g., into a temporary file) it is replaced by an ordinary Tuple
+ * holding the decoded values. A mapped tuple is read only
+ **/
+
+public class MappedTuple extends Tuple {
+
+    private static final long serialVersionUID = -5319542019902810805L;
+
+    transient ByteBuffer buf;       // The mapped table file
+    transient PageLayout record;    // Layout of the records in the file
+    transient int start;            // Offset of the record in the file
+
+
+    public MappedTuple(ByteBuffer buf, PageLayout record, int start) {
+        super();
+        this.buf = buf;
+        this.record = record;
+        this.start = start;
+        layout = record.getTupleLayout();
+    }
+
+    public int intAt(int index) {
+        return record.readInt(buf, start, index);
+    }
+
+    public float floatAt(int index) {
+        return record.readFloat(buf, start, index);
+    }
+
+    public String stringAt(int index) {
+        return record.readString(buf, start, index);
+    }
+
+    protected void copyTo(Tuple out, int intoff, int floatoff, int stringoff) {
+        for (int i = 0; i < layout.types.length; i++) {
+            int slot = layout.slots[i];
+            switch (layout.types[i]) {
+                case Attribute.INT:
+                    out.ints[intoff + slot] = intAt(i);
+                    break;
+                case Attribute.REAL:
+                    out.floats[floatoff + slot] = floatAt(i);
+                    break;
+                default:
+                    out.strings[stringoff + slot] = stringAt(i);
+            }
+        }
+    }
+
+    /** the decoded values as an ordinary tuple **/
+
+    public Tuple materialize() {
+        Tuple t = new Tuple(layout);
+        copyTo(t, 0, 0, 0);
+        return t;
+    }
+
+    protected Object writeReplace() {
+        return materialize();
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Binary layout of the records of a table inside a page,
+ * derived from the schema of the table
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+/**
+ * A page starts with a 4 byte record count followed by fixed width
+ * record slots; slot i starts at PAGE_HEADER + i * recordsize.
+ * Inside a record every column occupies a fixed number of bytes:
+ * INT and REAL take 4 bytes, STRING takes a 2 byte length followed by
+ * getAttrSize() bytes of characters (2 bytes per character)
+ **/
+
+public class PageLayout {
+
+    public static final int PAGE_HEADER = 4;  // Number of tuples in the page
+
+    int numcols;
+    int[] types;      // Attribute.INT/REAL/STRING of each column
+    int[] offsets;    // Offset of each column from the start of the record
+    int[] maxchars;   // Number of characters a STRING column can hold
+    int recordsize;   // Number of bytes of a record
+    TupleLayout tuplelayout;  // Layout of the decoded tuples
+
+
+    public PageLayout(Schema schema) {
+        numcols = schema.getNumCols();
+        types = new int[numcols];
+        offsets = new int[numcols];
+        maxchars = new int[numcols];
+        int offset = 0;
+        for (int i = 0; i < numcols; i++) {
+            Attribute attr = schema.getAttribute(i);
+            types[i] = attr.getType();
+            offsets[i] = offset;
+            if (types[i] == Attribute.STRING) {
+                maxchars[i] = attr.getAttrSize() / 2;
+                offset = offset + 2 + 2 * maxchars[i];
+            } else {
+                offset = offset + 4;
+            }
+        }
+        recordsize = offset;
+        tuplelayout = TupleLayout.of(types);
+    }
+
+    public int getRecordSize() {
+        return recordsize;
+    }
+
+    public int getNumCols() {
+        return numcols;
+    }
+
+    public TupleLayout getTupleLayout() {
+        return tuplelayout;
+    }
+
+    public int getType(int col) {
+        return types[col];
+    }
+
+    /** offset of the column from the start of the record **/
+
+    public int getOffset(int col) {
+        return offsets[col];
+    }
+
+    /** number of bytes the column takes in a record **/
+
+    public int getWidth(int col) {
+        return types[col] == Attribute.STRING ? 2 + 2 * maxchars[col] : 4;
+    }
+
+    public int getMaxChars(int col) {
+        return maxchars[col];
+    }
+
+    /** number of records that fit in a page of given bytes **/
+
+    public int capacity(int pagesize) {
+        return (pagesize - PAGE_HEADER) / recordsize;
+    }
+
+
+    /** number of records in the page starting at base **/
+
+    public int getNumTuples(ByteBuffer buf, int base) {
+        return buf.getInt(base);
+    }
+
+    public void setNumTuples(ByteBuffer buf, int base, int num) {
+        buf.putInt(base, num);
+    }
+
+
+    /** offset of the record in given slot of the page starting at base **/
+
+    public int recordStart(int base, int slot) {
+        return base + PAGE_HEADER + slot * recordsize;
+    }
+
+
+    /** decode the record in given slot of the page starting at base **/
+
+    public Tuple readTuple(ByteBuffer buf, int base, int slot) {
+        int start = recordStart(base, slot);
+        Tuple t = new Tuple(tuplelayout);
+        for (int i = 0; i < numcols; i++) {
+            switch (types[i]) {
+                case Attribute.INT:
+                    t.setInt(i, readInt(buf, start, i));
+                    break;
+                case Attribute.REAL:
+                    t.setFloat(i, readFloat(buf, start, i));
+                    break;
+                default:
+                    t.setString(i, readString(buf, start, i));
+            }
+        }
+        return t;
+    }
+
+    /** decode the given columns of the record in the slot into the
+     ** first columns of a tuple of layout out
+     **/
+
+    public Tuple readTuple(ByteBuffer buf, int base, int slot, int[] cols, TupleLayout out) {
+        int start = recordStart(base, slot);
+        Tuple t = new Tuple(out);
+        for (int i = 0; i < cols.length; i++) {
+            readValue(buf, start, cols[i], t, i);
+        }
+        return t;
+    }
+
+    /** decode the column of the record starting at start into column index of t **/
+
+    public void readValue(ByteBuffer buf, int start, int col, Tuple t, int index) {
+        switch (types[col]) {
+            case Attribute.INT:
+                t.setInt(index, readInt(buf, start, col));
+                break;
+            case Attribute.REAL:
+                t.setFloat(index, readFloat(buf, start, col));
+                break;
+            default:
+                t.setString(index, readString(buf, start, col));
+        }
+    }
+
+    /** decode a single column of the record starting at start **/
+
+    public int readInt(ByteBuffer buf, int start, int col) {
+        return buf.getInt(start + offsets[col]);
+    }
+
+    public float readFloat(ByteBuffer buf, int start, int col) {
+        return buf.getFloat(start + offsets[col]);
+    }
+
+    public String readString(ByteBuffer buf, int start, int col) {
+        int pos = start + offsets[col];
+        int len = buf.getShort(pos);
+        char[] chars = new char[len];
+        pos = pos + 2;
+        for (int j = 0; j < len; j++) {
+            chars[j] = buf.getChar(pos + 2 * j);
+        }
+        return new String(chars);
+    }
+
+
+    /** decode all the records of the page starting at base, returns number decoded **/
+
+    public int readPage(ByteBuffer buf, int base, Vector<Tuple> out) {
+        int num = getNumTuples(buf, base);
+        for (int slot = 0; slot < num; slot++) {
+            out.add(readTuple(buf, base, slot));
+        }
+        return num;
+    }
+
+
+    /** decode num records from slot onwards of the page starting at base
+     ** and append them to the columns, one column at a time
+     **/
+
+    public void readColumns(ByteBuffer buf, int base, int slot, int num, ColumnBatch cols) {
+        int row = cols.size;
+        int first = recordStart(base, slot);
+        for (int i = 0; i < numcols; i++) {
+            int pos = first + offsets[i];
+            if (types[i] == Attribute.INT) {
+                int[] data = cols.intcols[i];
+                for (int j = 0; j < num; j++, pos += recordsize) {
+                    data[row + j] = buf.getInt(pos);
+                }
+            } else if (types[i] == Attribute.REAL) {
+                float[] data = cols.floatcols[i];
+                for (int j = 0; j < num; j++, pos += recordsize) {
+                    data[row + j] = buf.getFloat(pos);
+                }
+            } else {
+                String[] data = cols.stringcols[i];
+                for (int j = 0; j < num; j++, pos += recordsize) {
+                    data[row + j] = readString(buf, pos - offsets[i], i);
+                }
+            }
+        }
+        cols.addRows(num);
+    }
+
+
+    /** encode the tuple into given slot of the page starting at base **/
+
+    public void writeTuple(ByteBuffer buf, int base, int slot, Tuple t) {
+        int start = recordStart(base, slot);
+        for (int i = 0; i < numcols; i++) {
+            int pos = start + offsets[i];
+            if (types[i] == Attribute.INT) {
+                buf.putInt(pos, t.intAt(i));
+            } else if (types[i] == Attribute.REAL) {
+                buf.putFloat(pos, t.floatAt(i));
+            } else {
+                String str = t.stringAt(i);
+                if (str.length() > maxchars[i]) {
+                    throw new IllegalArgumentException("PageLayout: string longer than "
+                            + maxchars[i] + " characters: " + str);
+                }
+                buf.putShort(pos, (short) str.length());
+                for (int j = 0; j < str.length(); j++) {
+                    buf.putChar(pos + 2 + 2 * j, str.charAt(j));
+                }
+            }
+        }
+    }
+}
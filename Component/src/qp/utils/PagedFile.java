@@ -0,0 +1,19 @@
+/**
+ * File made of pages of a fixed size, whose pages can be held by the BufferPool
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface PagedFile {
+
+    String getFileName();
+
+    int getPageSize();
+
+    /** reads the page into dst from its start, dst holds a whole page **/
+
+    void readPage(int pageno, ByteBuffer dst) throws IOException;
+}
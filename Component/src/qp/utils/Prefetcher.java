@@ -0,0 +1,149 @@
+/**
+ * Reads the pages of an input ahead in a background thread
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A reader thread keeps up to depth pages of the source read and
+ * decoded in a bounded queue while the consumer works on the current
+ * page, so that reading and processing overlap. With depth 0 the
+ * pages are read by the consumer itself when it asks for them
+ **/
+
+public class Prefetcher implements Runnable {
+
+    /** produces the pages in order, read returns null after the last one **/
+
+    public interface Source {
+        Batch read();
+
+        void close();
+    }
+
+    static final Batch END = new Batch(0);  // Marks the end of the pages in the queue
+
+    Source source;
+    ArrayBlockingQueue<Batch> queue;
+    Thread thread;           // The reader, null if pages are not read ahead
+    volatile boolean stopped;
+    boolean finished;        // Whether the last page has been returned
+
+
+    public Prefetcher(Source source, int depth) {
+        this.source = source;
+        if (depth > 0) {
+            queue = new ArrayBlockingQueue<>(depth);
+            thread = new Thread(this, "Prefetcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+
+    /** pages of the file written as a sequence of Batch objects **/
+
+    public static Prefetcher ofFile(final String filename, int depth) throws IOException {
+        final ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
+        return new Prefetcher(new Source() {
+            public Batch read() {
+                try {
+                    return (Batch) in.readObject();
+                } catch (EOFException e) {
+                    return null;
+                } catch (ClassNotFoundException c) {
+                    System.out.println("Prefetcher:Some error in deserialization of " + filename);
+                    System.exit(1);
+                } catch (IOException io) {
+                    System.out.println("Prefetcher:error in reading " + filename);
+                    System.exit(1);
+                }
+                return null;
+            }
+
+            public void close() {
+                try {
+                    in.close();
+                } catch (IOException io) {
+                    System.out.println("Prefetcher:error in closing " + filename);
+                }
+            }
+        }, depth);
+    }
+
+
+    /** the reader thread **/
+
+    public void run() {
+        try {
+            Batch batch;
+            while (!stopped && (batch = source.read()) != null) {
+                queue.put(batch);
+            }
+            if (!stopped) {
+                queue.put(END);
+            }
+        } catch (InterruptedException e) {
+            /** stopped **/
+        } finally {
+            source.close();
+        }
+    }
+
+
+    /** next page, waiting for it if it is not read yet; null after the last page **/
+
+    public Batch next() {
+        if (finished) {
+            return null;
+        }
+        if (thread == null) {
+            Batch batch = source.read();
+            if (batch == null) {
+                finished = true;
+                source.close();
+            }
+            return batch;
+        }
+        Batch batch;
+        try {
+            batch = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (batch == END) {
+            finished = true;
+            return null;
+        }
+        return batch;
+    }
+
+
+    /** Stops reading ahead and closes the source, waits for the reader
+     ** thread to leave the source. The reader is not interrupted as that
+     ** would close the file channel it may be reading from
+     **/
+
+    public void close() {
+        if (thread == null) {
+            if (!finished) {
+                finished = true;
+                source.close();
+            }
+            return;
+        }
+        stopped = true;
+        queue.clear();  // unblocks the reader waiting for room in the queue
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        finished = true;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Columns of the records of a table returned by a scan of the table
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+/**
+ * For late materialization a scan returns only the columns of the table
+ * used by the operators above it, optionally followed by the row id of
+ * the record (see TableFile.rowId). The tuples going through the joins
+ * are then narrower and the other columns are read from the table file
+ * by the Project at the top of the plan, for the result tuples only
+ **/
+
+public class RecordProjection {
+
+    Schema tableschema;  // Schema of the records in the table file
+    Schema schema;       // Schema of the tuples returned
+    int[] cols;          // Columns of the records returned
+    boolean rowids;      // Whether the row id follows the columns
+    TupleLayout layout;  // Layout of the tuples returned
+
+
+    /** the columns of attrs in the order of the table,
+     ** followed by the row id if rowids is set
+     **/
+
+    public RecordProjection(String tabname, Schema tableschema, Vector<?> attrs, boolean rowids) {
+        this.tableschema = tableschema;
+        this.rowids = rowids;
+        Vector<Attribute> kept = new Vector<>();
+        int tuplesize = 0;
+        for (int i = 0; i < tableschema.getNumCols(); i++) {
+            Attribute attr = tableschema.getAttribute(i);
+            for (int j = 0; j < attrs.size(); j++) {
+                if (attr.equals((Attribute) attrs.elementAt(j))) {
+                    kept.add(attr);
+                    tuplesize = tuplesize + attr.getAttrSize();
+                    break;
+                }
+            }
+        }
+        cols = new int[kept.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = tableschema.indexOf(kept.elementAt(i));
+        }
+        if (rowids) {
+            kept.add(TableFile.rowIdAttribute(tabname));
+            tuplesize = tuplesize + TableFile.ROWID_SIZE;
+        }
+        schema = new Schema(kept);
+        schema.setTupleSize(tuplesize);
+        layout = schema.getTupleLayout();
+    }
+
+    public Schema getTableSchema() {
+        return tableschema;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public boolean hasRowIds() {
+        return rowids;
+    }
+
+    /** number of bytes the tuples returned save on the records **/
+
+    public int getSavedSize() {
+        return tableschema.getTupleSize() - schema.getTupleSize();
+    }
+
+
+    /** the returned tuple of the record in the slot of the page **/
+
+    public Tuple read(TableFile file, ByteBuffer buf, int pageno, int slot) {
+        Tuple t = file.getLayout().readTuple(buf, file.pageBase(pageno), slot, cols, layout);
+        if (rowids) {
+            t.setInt(cols.length, file.rowId(pageno, slot));
+        }
+        return t;
+    }
+
+    /** the returned tuple of a decoded record, only without row ids **/
+
+    public Tuple project(Tuple record) {
+        return record.project(cols, layout);
+    }
+}
@@ -106,11 +106,54 @@ public class SQLQuery {
         return groupbyList;
     }
     
-    public int getNumJoin() {
+    /** the join conditions grouped by the two tables they compare, the
+     ** conditions of a group are checked together by one join with
+     ** the lhs of all of them in the table of the first. The equalities
+     ** come first, so the first condition of a group with an equality
+     ** is an equality
+     **/
+    
+    public Vector<Vector<Condition>> getJoinGroups() {
+        Vector<Vector<Condition>> groups = new Vector<>();
         if (joinList == null)
-            return 0;
-        
-        return joinList.size();
+            return groups;
+        for (int i = 0; i < joinList.size(); i++) {
+            Condition cn = (Condition) joinList.elementAt(i);
+            String lefttab = cn.getLhs().getTabName();
+            String righttab = ((Attribute) cn.getRhs()).getTabName();
+            Vector<Condition> group = null;
+            for (int j = 0; j < groups.size() && group == null; j++) {
+                Condition first = groups.elementAt(j).elementAt(0);
+                String firstleft = first.getLhs().getTabName();
+                String firstright = ((Attribute) first.getRhs()).getTabName();
+                if (firstleft.equals(lefttab) && firstright.equals(righttab)) {
+                    group = groups.elementAt(j);
+                } else if (firstleft.equals(righttab) && firstright.equals(lefttab)) {
+                    cn.flip();
+                    group = groups.elementAt(j);
+                }
+            }
+            if (group == null) {
+                group = new Vector<>();
+                groups.add(group);
+            }
+            if (cn.getExprType() == Condition.EQUAL) {
+                int pos = 0;
+                while (pos < group.size() && group.elementAt(pos).getExprType() == Condition.EQUAL) {
+                    pos++;
+                }
+                group.insertElementAt(cn, pos);
+            } else {
+                group.add(cn);
+            }
+        }
+        return groups;
+    }
+    
+    /** number of joins, one for each pair of tables joined **/
+    
+    public int getNumJoin() {
+        return getJoinGroups().size();
     }
     
 }
@@ -10,8 +10,12 @@ import java.util.Vector;
 
 public class Schema implements Serializable {
     
+    /** version the <tablename>.md files were written with **/
+    private static final long serialVersionUID = -3337675779203165021L;
+    
     Vector attset; // the attributes belong to this schema
     int tuplesize; // Number of bytes required for this tuple (size of record)
+    transient TupleLayout layout; // Storage layout of the tuples, built on first use
     
     public Schema(Vector colset) {
         attset = colset;
@@ -32,6 +36,7 @@ public class Schema implements Serializable {
     
     public void add(Attribute attr) {
         attset.add(attr);
+        layout = null;
     }
     
     public Vector getAttList() {
@@ -39,6 +44,16 @@ public class Schema implements Serializable {
     }
     
     
+    /** layout of the tuples of this schema **/
+    
+    public TupleLayout getTupleLayout() {
+        if (layout == null) {
+            layout = TupleLayout.of(TupleLayout.typesOf(this));
+        }
+        return layout;
+    }
+    
+    
     public Attribute getAttribute(int i) {
         return (Attribute) attset.elementAt(i);
     }
@@ -0,0 +1,247 @@
+/**
+ * Binary page file holding the tuples of a base table
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * The file <tablename>.dat starts with a header of HEADER_SIZE bytes
+ * (magic, page size, record size, number of pages, number of tuples)
+ * followed by the pages, each of them laid out as described in PageLayout.
+ * The page size of the file is fixed when the file is written and is
+ * independent of the page size used for the Batches of the operators
+ **/
+
+public class TableFile implements PagedFile {
+
+    public static final String SUFFIX = ".dat";
+    public static final int MAGIC = 0x51505442;
+    public static final int HEADER_SIZE = 24;
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    /** name of the column holding the row ids of the records, see rowId **/
+    public static final String ROWID = "#rowid";
+    public static final int ROWID_SIZE = 4;
+
+    String filename;
+    PageLayout layout;
+    int pagesize;      // Number of bytes per page in this file
+    int numpages;      // Number of pages in this file
+    long numtuples;    // Number of tuples in this file
+
+    FileChannel channel;
+    ByteBuffer page;   // Buffer the pages are read into
+    ByteBuffer mapbuf; // Whole file when it is memory mapped
+
+    /** memory mapped table files, shared by all the scans of the file **/
+    static Hashtable<String, TableFile> mappedFiles = new Hashtable<>();
+
+
+    /** name of the binary file of the table **/
+
+    public static String fileName(String tabname) {
+        return tabname + SUFFIX;
+    }
+
+    /** whether the table has been converted to the binary format **/
+
+    public static boolean exists(String tabname) {
+        return new File(fileName(tabname)).exists();
+    }
+
+
+    /** reads the schema of the table from <tablename>.md **/
+
+    public static Schema readSchema(String tabname) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new FileInputStream(tabname + ".md"));
+        try {
+            return (Schema) in.readObject();
+        } catch (ClassNotFoundException cnf) {
+            throw new IOException("TableFile: error in schema object file " + tabname + ".md");
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /** the INT attribute of the row ids of the table **/
+
+    public static Attribute rowIdAttribute(String tabname) {
+        return new Attribute(tabname, ROWID, Attribute.INT, -1, ROWID_SIZE);
+    }
+
+    public static boolean isRowId(Attribute attr) {
+        return attr.getColName().equals(ROWID);
+    }
+
+
+    /** returns the memory mapped table file, the file is mapped by
+     ** the first call and later calls reuse the same mapping without
+     ** touching the file system
+     **/
+
+    public static TableFile mapped(String filename, Schema schema) throws IOException {
+        TableFile file = mappedFiles.get(filename);
+        if (file == null) {
+            file = new TableFile(filename, schema);
+            long size = file.channel.size();
+            if (size > Integer.MAX_VALUE) {
+                file.close();
+                throw new IOException("TableFile: " + filename + " is too large to be mapped");
+            }
+            file.mapbuf = file.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            file.channel.close();
+            file.page = null;
+            mappedFiles.put(filename, file);
+        }
+        return file;
+    }
+
+    /** drops the mapping of a file that has been rewritten, the later
+     ** scans map the new contents
+     **/
+
+    public static void unmap(String filename) {
+        mappedFiles.remove(filename);
+    }
+
+
+    /** opens the file and reads its header **/
+
+    public TableFile(String filename, Schema schema) throws IOException {
+        this.filename = filename;
+        layout = new PageLayout(schema);
+        channel = new RandomAccessFile(filename, "r").getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("TableFile: truncated header in " + filename);
+            }
+        }
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("TableFile: " + filename + " is not a table file");
+        }
+        pagesize = header.getInt(4);
+        if (header.getInt(8) != layout.getRecordSize()) {
+            throw new IOException("TableFile: record size of " + filename + " does not match the schema");
+        }
+        numpages = header.getInt(12);
+        numtuples = header.getLong(16);
+        page = ByteBuffer.allocate(pagesize);
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    public PageLayout getLayout() {
+        return layout;
+    }
+
+    public int getPageSize() {
+        return pagesize;
+    }
+
+    public int getNumPages() {
+        return numpages;
+    }
+
+    public long getNumTuples() {
+        return numtuples;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public boolean isMapped() {
+        return mapbuf != null;
+    }
+
+    /** the mapped contents of the file, null if it is not mapped **/
+
+    public ByteBuffer getMappedBuffer() {
+        return mapbuf;
+    }
+
+    /** byte offset of the page in the file **/
+
+    public long pageOffset(int pageno) {
+        return HEADER_SIZE + (long) pageno * pagesize;
+    }
+
+
+    /** reads the page with one read call (nothing to read if the file
+     ** is mapped) and returns the buffer holding it, the page starts
+     ** at pageBase(pageno) in that buffer
+     **/
+
+    public ByteBuffer fetchPage(int pageno) throws IOException {
+        if (mapbuf != null) {
+            return mapbuf;
+        }
+        readPage(pageno, page);
+        return page;
+    }
+
+    /** reads the page into dst from its start, dst holds a whole page **/
+
+    public void readPage(int pageno, ByteBuffer dst) throws IOException {
+        dst.clear();
+        long offset = pageOffset(pageno);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, offset + dst.position()) < 0) {
+                throw new IOException("TableFile: truncated page " + pageno + " in " + filename);
+            }
+        }
+    }
+
+    public int pageBase(int pageno) {
+        return mapbuf != null ? (int) pageOffset(pageno) : 0;
+    }
+
+
+    /** The row id of a record is its page number times the number of
+     ** records per page plus its slot, it stays valid as the file is
+     ** never updated
+     **/
+
+    public int rowId(int pageno, int slot) {
+        return pageno * layout.capacity(pagesize) + slot;
+    }
+
+    public int pageOfRowId(int rowid) {
+        return rowid / layout.capacity(pagesize);
+    }
+
+    public int slotOfRowId(int rowid) {
+        return rowid % layout.capacity(pagesize);
+    }
+
+    /** reads the page and decodes all its tuples into out **/
+
+    public int readPage(int pageno, Vector<Tuple> out) throws IOException {
+        ByteBuffer buf = fetchPage(pageno);
+        return layout.readPage(buf, pageBase(pageno), out);
+    }
+
+
+    /** a mapped file stays mapped for the following scans **/
+
+    public void close() throws IOException {
+        if (mapbuf == null) {
+            channel.close();
+        }
+    }
+}
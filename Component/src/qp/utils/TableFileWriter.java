@@ -0,0 +1,89 @@
+/**
+ * Writes the tuples of a table into the binary page format of TableFile
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class TableFileWriter {
+
+    String filename;
+    PageLayout layout;
+    int pagesize;
+    int capacity;      // Number of records per page
+    int numpages;
+    long numtuples;
+
+    FileChannel channel;
+    ByteBuffer page;   // The page being filled
+    int numInPage;     // Number of records in the current page
+
+
+    public TableFileWriter(String filename, Schema schema, int pagesize) throws IOException {
+        this.filename = filename;
+        layout = new PageLayout(schema);
+        this.pagesize = pagesize;
+        capacity = layout.capacity(pagesize);
+        if (capacity < 1) {
+            throw new IOException("TableFileWriter: page size " + pagesize + " cannot hold a single record of "
+                    + layout.getRecordSize() + " bytes");
+        }
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        page = ByteBuffer.allocate(pagesize);
+        numpages = 0;
+        numtuples = 0;
+        numInPage = 0;
+    }
+
+
+    /** append the tuple at the next free slot, writing out the page when it is full **/
+
+    public void add(Tuple t) throws IOException {
+        layout.writeTuple(page, 0, numInPage, t);
+        numInPage++;
+        numtuples++;
+        if (numInPage == capacity) {
+            flushPage();
+        }
+    }
+
+    void flushPage() throws IOException {
+        layout.setNumTuples(page, 0, numInPage);
+        page.clear();
+        long offset = TableFile.HEADER_SIZE + (long) numpages * pagesize;
+        while (page.hasRemaining()) {
+            channel.write(page, offset + page.position());
+        }
+        numpages++;
+        numInPage = 0;
+    }
+
+
+    /** writes the last partially filled page and the file header **/
+
+    public void close() throws IOException {
+        if (numInPage > 0) {
+            flushPage();
+        }
+        ByteBuffer header = ByteBuffer.allocate(TableFile.HEADER_SIZE);
+        header.putInt(TableFile.MAGIC);
+        header.putInt(pagesize);
+        header.putInt(layout.getRecordSize());
+        header.putInt(numpages);
+        header.putLong(numtuples);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.close();
+        /** pages of the earlier contents may be in the pool or mapped **/
+        BufferPool.invalidate(filename);
+        TableFile.unmap(filename);
+    }
+}
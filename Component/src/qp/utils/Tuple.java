@@ -4,65 +4,263 @@
 package qp.utils;
 
 import java.util.Vector;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
- * Tuple - a simple object which holds a Vector
- * of data
+ * Tuple - holds the values of a record in primitive
+ * arrays, one per data type, as given by its TupleLayout
  */
 
 public class Tuple implements Serializable {
-    public Vector _data;
-    
-    
+
+    /** the .tbl files were written by the earlier Vector based
+     ** Tuple with this version, see readObject
+     **/
+    private static final long serialVersionUID = 8738898719856953652L;
+
+    static final int[] NO_INTS = new int[0];
+    static final float[] NO_FLOATS = new float[0];
+    static final String[] NO_STRINGS = new String[0];
+
+    TupleLayout layout;
+    int[] ints;        // INT columns
+    float[] floats;    // REAL columns
+    String[] strings;  // STRING columns
+
+
+    /** empty tuple of the given layout, filled by the setters **/
+
+    public Tuple(TupleLayout layout) {
+        this.layout = layout;
+        ints = layout.numints == 0 ? NO_INTS : new int[layout.numints];
+        floats = layout.numfloats == 0 ? NO_FLOATS : new float[layout.numfloats];
+        strings = layout.numstrings == 0 ? NO_STRINGS : new String[layout.numstrings];
+    }
+
+    /** tuple holding the given Integer/Float/String values **/
+
     public Tuple(Vector d) {
-        _data = d;
+        this(TupleLayout.infer(d));
+        for (int i = 0; i < d.size(); i++) {
+            setValue(i, d.elementAt(i));
+        }
     }
-    
+
+    /** for subclasses that provide the values themselves **/
+
+    protected Tuple() {
+    }
+
+
+    public TupleLayout layout() {
+        return layout;
+    }
+
+    /** number of columns **/
+
+    public int size() {
+        return layout.types.length;
+    }
+
+    public int typeAt(int index) {
+        return layout.types[index];
+    }
+
+
     /**
-     * Accessor for data
+     * Typed accessors, the column must be of the accessed type
      */
-    public Vector data() {
-        return _data;
+
+    public int intAt(int index) {
+        return ints[layout.slots[index]];
+    }
+
+    public float floatAt(int index) {
+        return floats[layout.slots[index]];
+    }
+
+    public String stringAt(int index) {
+        return strings[layout.slots[index]];
+    }
+
+    public void setInt(int index, int value) {
+        ints[layout.slots[index]] = value;
+    }
+
+    public void setFloat(int index, float value) {
+        floats[layout.slots[index]] = value;
+    }
+
+    public void setString(int index, String value) {
+        strings[layout.slots[index]] = value;
     }
-    
+
+
+    /** boxed value of the column **/
+
     public Object dataAt(int index) {
-        return _data.elementAt(index);
+        switch (typeAt(index)) {
+            case Attribute.INT:
+                return Integer.valueOf(intAt(index));
+            case Attribute.REAL:
+                return Float.valueOf(floatAt(index));
+            default:
+                return stringAt(index);
+        }
     }
-    
-    
+
+    public void setValue(int index, Object value) {
+        switch (typeAt(index)) {
+            case Attribute.INT:
+                setInt(index, ((Integer) value).intValue());
+                break;
+            case Attribute.REAL:
+                setFloat(index, ((Float) value).floatValue());
+                break;
+            default:
+                setString(index, (String) value);
+        }
+    }
+
+    /**
+     * Accessor for data, the values are boxed into a new Vector
+     */
+    public Vector data() {
+        Vector<Object> d = new Vector<>(size());
+        for (int i = 0; i < size(); i++) {
+            d.add(dataAt(i));
+        }
+        return d;
+    }
+
+
     /**
      * Checks whether the join condition is satisfied or not
      * * before performing actual join operation
      **/
-    
+
     public boolean checkJoin(Tuple right, int leftindex, int rightindex) {
-        Object leftData = dataAt(leftindex);
-        Object rightData = right.dataAt(rightindex);
-        
-        if (leftData.equals(rightData))
-            return true;
-        else
-            return false;
-    }
-    
-    
+        switch (typeAt(leftindex)) {
+            case Attribute.INT:
+                return intAt(leftindex) == right.intAt(rightindex);
+            case Attribute.REAL:
+                return Float.compare(floatAt(leftindex), right.floatAt(rightindex)) == 0;
+            default:
+                return stringAt(leftindex).equals(right.stringAt(rightindex));
+        }
+    }
+
+
+    /** checks the comparison exprtype (Condition.LESSTHAN ...) of the values **/
+
+    public boolean checkJoin(Tuple right, int leftindex, int rightindex, int exprtype) {
+        int cmp = compareTuples(this, right, leftindex, rightindex);
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return cmp < 0;
+            case Condition.GREATERTHAN:
+                return cmp > 0;
+            case Condition.LTOE:
+                return cmp <= 0;
+            case Condition.GTOE:
+                return cmp >= 0;
+            case Condition.NOTEQUAL:
+                return cmp != 0;
+            default:
+                return cmp == 0;
+        }
+    }
+
+
+    /** checks the join conditions on the pairs of columns of a composite key **/
+
+    public boolean checkJoin(Tuple right, int[] leftindexes, int[] rightindexes) {
+        for (int i = 0; i < leftindexes.length; i++) {
+            if (!checkJoin(right, leftindexes[i], rightindexes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** The value of a composite key as a hash key: the boxed value for a
+     ** single column, otherwise a Vector of the values, equal and with the
+     ** same hashCode for equal keys
+     **/
+
+    public Object keyAt(int[] indexes) {
+        if (indexes.length == 1) {
+            return dataAt(indexes[0]);
+        }
+        Vector<Object> key = new Vector<>(indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            key.add(dataAt(indexes[i]));
+        }
+        return key;
+    }
+
+
     /**
      * Joining two tuples Without duplicate column elimination
      **/
-    
-    
+
+
     public Tuple joinWith(Tuple right) { //, Attribute leftAttr, Attribute rightAttr){
-        Vector newData = new Vector(this.data());
-        newData.addAll(right.data());
-        return new Tuple(newData);
+        return joinWith(right, layout().joinWith(right.layout()));
+    }
+
+    /** joining when the layout of the result is already known **/
+
+    public Tuple joinWith(Tuple right, TupleLayout joined) {
+        Tuple out = new Tuple(joined);
+        TupleLayout leftlayout = layout();
+        copyTo(out, 0, 0, 0);
+        right.copyTo(out, leftlayout.numints, leftlayout.numfloats, leftlayout.numstrings);
+        return out;
+    }
+
+    /** copy the values into the arrays of out starting at the given slots **/
+
+    protected void copyTo(Tuple out, int intoff, int floatoff, int stringoff) {
+        System.arraycopy(ints, 0, out.ints, intoff, ints.length);
+        System.arraycopy(floats, 0, out.floats, floatoff, floats.length);
+        System.arraycopy(strings, 0, out.strings, stringoff, strings.length);
+    }
+
+
+    /**
+     * The given columns of this tuple, projected is the layout of the result.
+     * A column given as -1 is left to be set by the caller
+     **/
+
+    public Tuple project(int[] cols, TupleLayout projected) {
+        Tuple out = new Tuple(projected);
+        for (int i = 0; i < cols.length; i++) {
+            if (cols[i] < 0)
+                continue;
+            int slot = projected.slots[i];
+            switch (projected.types[i]) {
+                case Attribute.INT:
+                    out.ints[slot] = intAt(cols[i]);
+                    break;
+                case Attribute.REAL:
+                    out.floats[slot] = floatAt(cols[i]);
+                    break;
+                default:
+                    out.strings[slot] = stringAt(cols[i]);
+            }
+        }
+        return out;
     }
-    
-    
+
+
     /**
      * Compare two tuples in the same table on given attribute
      **/
-    
+
     public static int compareTuples(Tuple left, Tuple right, int index) {
         return compareTuples(left, right, index, index);
     }
@@ -77,36 +275,60 @@ public class Tuple implements Serializable {
         }
         return 0;
     }
-    
+
+    /** comparing composite keys of tuples in different tables, column by column **/
+
+    public static int compareTuples(Tuple left, Tuple right, int[] leftIndexes, int[] rightIndexes) {
+        for (int i = 0; i < leftIndexes.length; i++) {
+            int diff = compareTuples(left, right, leftIndexes[i], rightIndexes[i]);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
     /**
      * comparing tuples in different tables, used for join condition checking
      **/
-    
+
     public static int compareTuples(Tuple left, Tuple right, int leftIndex, int rightIndex) {
-        Object leftdata = left.dataAt(leftIndex);
-        Object rightdata = right.dataAt(rightIndex);
-        if (leftdata instanceof Integer) {
-            return ((Integer) leftdata).compareTo((Integer) rightdata);
-        } else if (leftdata instanceof String) {
-            return ((String) leftdata).compareTo((String) rightdata);
-            
-        } else if (leftdata instanceof Float) {
-            return ((Float) leftdata).compareTo((Float) rightdata);
-        } else {
-            System.out.println("Tuple: Unknown comparision of the tuples");
-            System.exit(1);
-            return 0;
+        switch (left.typeAt(leftIndex)) {
+            case Attribute.INT:
+                return Integer.compare(left.intAt(leftIndex), right.intAt(rightIndex));
+            case Attribute.STRING:
+                return left.stringAt(leftIndex).compareTo(right.stringAt(rightIndex));
+            case Attribute.REAL:
+                return Float.compare(left.floatAt(leftIndex), right.floatAt(rightIndex));
+            default:
+                System.out.println("Tuple: Unknown comparision of the tuples");
+                System.exit(1);
+                return 0;
         }
     }
-    
-}
-
-
-
-
-
-
 
 
+    /** Reads both the current form and the Vector of boxed values
+     ** (field _data) written by the earlier Tuple class
+     **/
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        if (fields.getObjectStreamClass().getField("_data") != null) {
+            Vector<?> d = (Vector<?>) fields.get("_data", null);
+            layout = TupleLayout.infer(d);
+            ints = new int[layout.numints];
+            floats = new float[layout.numfloats];
+            strings = new String[layout.numstrings];
+            for (int i = 0; i < d.size(); i++) {
+                setValue(i, d.elementAt(i));
+            }
+        } else {
+            layout = (TupleLayout) fields.get("layout", null);
+            ints = (int[]) fields.get("ints", null);
+            floats = (float[]) fields.get("floats", null);
+            strings = (String[]) fields.get("strings", null);
+        }
+    }
 
+}
@@ -0,0 +1,186 @@
+/**
+ * Storage layout of the tuples of a schema
+ **/
+
+package qp.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A tuple keeps its INT columns in an int array, its REAL columns in a
+ * float array and its STRING columns in a String array. The layout maps
+ * every column to its type and to its slot in the array of that type.
+ * Layouts are shared by all the tuples with the same column types: of()
+ * returns one layout per list of types, which the schemas, the tuples
+ * built from boxed values and the tuples read back from files all use
+ **/
+
+public class TupleLayout implements Serializable {
+
+    private static final long serialVersionUID = -7969840757000676986L;
+
+    int[] types;       // Attribute.INT/REAL/STRING of each column
+    int[] slots;       // Index of each column in the array of its type
+    int numints;
+    int numfloats;
+    int numstrings;
+
+    /** last layout computed by joinWith, kept as one object so
+     ** that concurrent joins always see a consistent pair
+     **/
+    transient JoinMemo joinmemo;
+
+    /** the shared layouts by their column types **/
+    static ConcurrentHashMap<Types, TupleLayout> shared = new ConcurrentHashMap<>();
+
+
+    public TupleLayout(int[] types) {
+        this.types = types;
+        slots = new int[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Attribute.INT) {
+                slots[i] = numints++;
+            } else if (types[i] == Attribute.REAL) {
+                slots[i] = numfloats++;
+            } else {
+                slots[i] = numstrings++;
+            }
+        }
+    }
+
+    /** layout of the tuples of the given schema **/
+
+    public TupleLayout(Schema schema) {
+        this(typesOf(schema));
+    }
+
+    /** the shared layout of the given column types **/
+
+    public static TupleLayout of(int[] types) {
+        TupleLayout layout = shared.get(new Types(types));
+        if (layout == null) {
+            layout = new TupleLayout(types.clone());
+            TupleLayout earlier = shared.putIfAbsent(new Types(layout.types), layout);
+            if (earlier != null) {
+                layout = earlier;
+            }
+        }
+        return layout;
+    }
+
+    /** a layout read from a file is replaced by the shared one **/
+
+    private Object readResolve() {
+        return of(types);
+    }
+
+    static int[] typesOf(Schema schema) {
+        int[] types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = schema.getAttribute(i).getType();
+        }
+        return types;
+    }
+
+
+    /** layout inferred from the classes of boxed values **/
+
+    public static TupleLayout infer(Vector<?> data) {
+        int[] types = new int[data.size()];
+        for (int i = 0; i < types.length; i++) {
+            Object value = data.elementAt(i);
+            if (value instanceof Integer) {
+                types[i] = Attribute.INT;
+            } else if (value instanceof Float) {
+                types[i] = Attribute.REAL;
+            } else {
+                types[i] = Attribute.STRING;
+            }
+        }
+        return of(types);
+    }
+
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    public int typeOf(int col) {
+        return types[col];
+    }
+
+    public int slotOf(int col) {
+        return slots[col];
+    }
+
+    public int getNumInts() {
+        return numints;
+    }
+
+    public int getNumFloats() {
+        return numfloats;
+    }
+
+    public int getNumStrings() {
+        return numstrings;
+    }
+
+
+    /** layout of the tuples resulting from joining with right **/
+
+    public TupleLayout joinWith(TupleLayout right) {
+        JoinMemo memo = joinmemo;
+        if (memo != null && memo.right == right) {
+            return memo.joined;
+        }
+        int[] newtypes = new int[types.length + right.types.length];
+        System.arraycopy(types, 0, newtypes, 0, types.length);
+        System.arraycopy(right.types, 0, newtypes, types.length, right.types.length);
+        TupleLayout joined = of(newtypes);
+        joinmemo = new JoinMemo(right, joined);
+        return joined;
+    }
+
+    /** layout of the given columns of this layout **/
+
+    public TupleLayout project(int[] cols) {
+        int[] newtypes = new int[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            newtypes[i] = types[cols[i]];
+        }
+        return of(newtypes);
+    }
+
+
+    /** column types as a key of the shared layouts **/
+
+    static class Types {
+        final int[] types;
+
+        Types(int[] types) {
+            this.types = types;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Types && Arrays.equals(types, ((Types) o).types);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(types);
+        }
+    }
+
+
+    static class JoinMemo {
+        final TupleLayout right;
+        final TupleLayout joined;
+
+        JoinMemo(TupleLayout right, TupleLayout joined) {
+            this.right = right;
+            this.joined = joined;
+        }
+    }
+}
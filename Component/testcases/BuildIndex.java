@@ -0,0 +1,49 @@
+import java.io.*;
+import qp.utils.*;
+/*
+  builds the B+-tree index <tablename>.<column>.idx over a column of
+  the table from its binary page file <tablename>.dat, which has to be
+  created by ConvertTblToDat first
+*/
+
+public class BuildIndex {
+
+  public static void main(String[] args) throws IOException {
+    // check the arguments
+    if (args.length != 2 && args.length != 3) {
+      System.out.println("usage: java BuildIndex <tablename> <column> [pagesize] \n creates <tablename>.<column>.idx file");
+      System.exit(1);
+    }
+    String tblname = args[0];
+    String colname = args[1];
+    String mdfile = tblname+".md";
+    int pagesize = BTreeIndex.DEFAULT_PAGE_SIZE;
+    if (args.length == 3) {
+      pagesize = Integer.parseInt(args[2]);
+    }
+    if (!TableFile.exists(tblname)) {
+      System.out.println(TableFile.fileName(tblname) + " does not exist, run ConvertTblToDat first");
+      System.exit(1);
+    }
+
+    Schema schema = null;
+    try {
+      ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+      schema = (Schema) ins.readObject();
+      ins.close();
+    } catch (ClassNotFoundException ce) {
+      System.out.println("class not found exception --- error in schema object file");
+      System.exit(1);
+    }
+
+    int col = schema.indexOf(new Attribute(tblname, colname));
+    if (col == -1) {
+      System.out.println("no column " + colname + " in " + tblname);
+      System.exit(1);
+    }
+    BTreeIndex.build(tblname, schema, col, pagesize);
+    BTreeIndex index = new BTreeIndex(BTreeIndex.fileName(tblname, colname));
+    System.out.println(index.getNumEntries() + " entries in " + index.getNumLeaves() + " leaves, height "
+        + index.getHeight() + ", written to " + BTreeIndex.fileName(tblname, colname));
+  }
+}
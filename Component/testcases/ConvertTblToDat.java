@@ -0,0 +1,54 @@
+import java.io.*;
+import qp.utils.*;
+/*
+  converts the serialized <tablename>.tbl file (one Tuple object per
+  record) into the binary page file <tablename>.dat read by Scan.
+  the layout of the pages is derived from the schema in <tablename>.md
+*/
+
+public class ConvertTblToDat {
+
+  public static void main(String[] args) throws IOException {
+    // check the arguments
+    if (args.length != 1 && args.length != 2) {
+      System.out.println("usage: java ConvertTblToDat <tablename> [pagesize] \n creates <tablename>.dat file");
+      System.exit(1);
+    }
+    String tblname = args[0];
+    String mdfile = tblname+".md";
+    String tblfile = tblname+".tbl";
+    int pagesize = TableFile.DEFAULT_PAGE_SIZE;
+    if (args.length == 2) {
+      pagesize = Integer.parseInt(args[1]);
+    }
+
+    Schema schema = null;
+    try {
+      ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+      schema = (Schema) ins.readObject();
+      ins.close();
+    } catch (ClassNotFoundException ce) {
+      System.out.println("class not found exception --- error in schema object file");
+      System.exit(1);
+    }
+
+    ObjectInputStream in = new ObjectInputStream(new FileInputStream(tblfile));
+    TableFileWriter out = new TableFileWriter(TableFile.fileName(tblname), schema, pagesize);
+    int numtuples = 0;
+    try {
+      while (true) {
+        Tuple tuple = (Tuple) in.readObject();
+        out.add(tuple);
+        numtuples++;
+      }
+    } catch (EOFException eof) {
+      // all the tuples are converted
+    } catch (ClassNotFoundException ce) {
+      System.out.println("class not found exception --- error in table file " + tblfile);
+      System.exit(1);
+    }
+    out.close();
+    in.close();
+    System.out.println(numtuples + " tuples written to " + TableFile.fileName(tblname));
+  }
+}
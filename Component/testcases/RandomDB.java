@@ -7,6 +7,8 @@ public class RandomDB{
 private static Random random;
    static boolean[] pk;
     static boolean[] fk;
+    static int[][] counts;   // number of tuples with each value of the INTEGER columns
+    static final int MAXFREQUENT = 5;
 
     public RandomDB(){
 	random = new Random(System.currentTimeMillis());
@@ -58,6 +60,8 @@ private static Random random;
 	    String [] datatype = new String[numCol];
 	    int [] range = new int[numCol];
 	    String [] keytype = new String[numCol];
+	    String [] colnames = new String[numCol];
+	    counts = new int[numCol][];
 
 		/** second line is <size of tuple = number of bytes> **/
 		line = in.readLine();
@@ -81,6 +85,7 @@ private static Random random;
 		int tokenCount = tokenizer.countTokens();
 		/** get column name **/
 		String colname = tokenizer.nextToken();
+		colnames[i] = colname;
 
 		/** get data type **/
 		datatype[i]= tokenizer.nextToken();
@@ -153,6 +158,10 @@ private static Random random;
 		    }else if(datatype[j].equals("INTEGER")){
 			int value = random.nextInt(range[j]);
 			outtbl.print(value+"\t");
+			if(counts[j]==null){
+			    counts[j] = new int[range[j]];
+			}
+			counts[j][value]++;
 			if(keytype[j].equals("FK")){
 			    fk[value]=true;
 			}
@@ -190,6 +199,16 @@ private static Random random;
 
 		}
 	    }
+
+	    /** following lines: <colname> <value> <count> ... for the most
+		frequent values of an INTEGER column, those with more than
+		twice the average number of tuples per value
+	    **/
+	    for(i=1;i<numCol;i++){
+		if(counts[i]!=null){
+		    rdb.printFrequent(outstat, colnames[i], counts[i], numtuple);
+		}
+	    }
 	    outstat.close();
 	    in.close();
 	}catch(IOException io){
@@ -207,4 +226,38 @@ private static Random random;
 	}
 	return count;
     }
+
+
+    /** prints the line of the most frequent values of a column,
+	if any of them has more than twice the average count
+    **/
+
+    public void printFrequent(PrintWriter outstat, String colname, int[] count, int numtuple){
+	int numdist = 0;
+	for(int v=0;v<count.length;v++){
+	    if(count[v]>0) numdist++;
+	}
+	if(numdist==0)
+	    return;
+	int threshold = 2*numtuple/numdist;
+	boolean[] printed = new boolean[count.length];
+	String line = colname;
+	int numfrequent = 0;
+	while(numfrequent<MAXFREQUENT){
+	    int max = -1;
+	    for(int v=0;v<count.length;v++){
+		if(!printed[v] && count[v]>threshold && (max==-1 || count[v]>count[max]))
+		    max = v;
+	    }
+	    if(max==-1)
+		break;
+	    printed[max] = true;
+	    line = line+"\t"+max+"\t"+count[max];
+	    numfrequent++;
+	}
+	if(numfrequent>0){
+	    outstat.println();
+	    outstat.print(line);
+	}
+    }
 }